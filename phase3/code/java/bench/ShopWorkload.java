@@ -0,0 +1,122 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * The operations measured by benchmarks.ShopBenchmark, bound to a
+ * MechanicShop connected with the given settings. JMH refuses benchmark
+ * classes in the default package and a named package cannot refer to the
+ * default package, so the benchmark loads this class by name and only sees
+ * it through the JDK Function, Callable and AutoCloseable types.
+ *
+ * Settings: dbname, port, user, seedDir, statementCacheSize, prepareThreshold.
+ * When seedDir is set the tables are TRUNCATED and reloaded from the CSV
+ * files in that directory.
+ *
+ */
+public class ShopWorkload implements Function<String, Callable<Object>>, AutoCloseable{
+	//rows written by the benchmarks carry these values and are deleted at the end of the run
+	private static final String MARKER = "Bench";
+	private static final String COMMENT = "Benchmark";
+
+	private final MechanicShop _esql;
+	private final ShopService _service;
+	private final AtomicInteger _nextVin = new AtomicInteger();
+	private final Map<String, Callable<Object>> _operations = new HashMap<String, Callable<Object>>();
+	private final int _customerId;
+	private final int _mechanicId;
+	private final String _vin;
+
+	public ShopWorkload(Map<String, String> settings) throws Exception {
+		String login = settings.getOrDefault("user", "");
+		if (login.isEmpty()) login = System.getProperty("user.name");
+		String db = settings.getOrDefault("dbname", "");
+		if (db.isEmpty()) db = login + "_DB";
+		System.setProperty("pool.statementCacheSize", settings.getOrDefault("statementCacheSize", "64"));
+		System.setProperty("jdbc.prepareThreshold", settings.getOrDefault("prepareThreshold", "5"));
+		// every report call has to reach the database
+		System.setProperty("reports.ttlMillis", "0");
+		Class.forName("org.postgresql.Driver");
+		this._esql = new MechanicShop(db, settings.getOrDefault("port", "5432"), login, "");
+		this._service = this._esql.getService();
+
+		String seedDir = settings.getOrDefault("seedDir", "");
+		if (!seedDir.isEmpty()){
+			this._esql.executeUpdate("TRUNCATE Closed_Request, Service_Request, Owns, Car, Mechanic, Customer CASCADE");
+			new BulkLoader(this._esql.getPool()).loadAll(new File(seedDir));
+			IdAllocator.sync(this._esql);
+			this._esql.executeUpdate("ANALYZE");
+		}
+		cleanUp();
+
+		// a customer, car and mechanic owned by the benchmark
+		this._customerId = firstKey(this._service.addCustomer(MARKER, "Mark", "(000)000-0000", "1 Benchmark Road"));
+		this._mechanicId = firstKey(this._service.addMechanic(MARKER, "Mark", 10));
+		this._vin = "BENCH" + this._nextVin.getAndIncrement();
+		this._service.addCar(this._vin, MARKER, "Mark", 2000);
+
+		// keys come from the sequences, the same way the console creates records
+		this._operations.put("addCustomer", () -> this._service.addCustomer(MARKER, "Mark", "(000)000-0000", "1 Benchmark Road"));
+		this._operations.put("insertAndCloseServiceRequest", () -> {
+			int rid = firstKey(this._service.insertServiceRequest(this._customerId, this._vin, 1000, COMMENT));
+			return this._service.closeServiceRequest(rid, this._mechanicId, COMMENT, 50);
+		});
+		this._operations.put("existsCustomer", () -> this._esql.exists("Customer", this._customerId));
+		this._operations.put("existsMechanic", () -> this._esql.exists("Mechanic", this._mechanicId));
+		this._operations.put("getCustomer", () -> this._service.getCustomer(this._customerId));
+		this._operations.put("findCustomersByLastName", () -> this._service.findCustomersByLastName("Mark"));
+		this._operations.put("reportBillLessThan100", () -> this._service.listCustomersWithBillLessThan100());
+		this._operations.put("reportMoreThan20Cars", () -> this._service.listCustomersWithMoreThan20Cars());
+		this._operations.put("reportCarsBefore1995", () -> this._service.listCarsBefore1995With50000Milles());
+		this._operations.put("reportMostServicedCars", () -> this._service.listKCarsWithTheMostServices(10));
+		this._operations.put("reportTotalBill", () -> this._service.listCustomersInDescendingOrderOfTheirTotalBill(20, 0));
+	}
+
+	/**
+	 * @param name the operation name
+	 * @return the operation, ready to be called repeatedly
+	 */
+	public Callable<Object> apply(String name){
+		Callable<Object> op = this._operations.get(name);
+		if (op == null) throw new IllegalArgumentException("Unknown operation: " + name);
+		return op;
+	}
+
+	private static int firstKey(QueryResult added){
+		return Integer.parseInt(added.getRows().get(0).get(0));
+	}
+
+	//removes every row written by the benchmarks
+	private void cleanUp() throws Exception {
+		this._esql.executeUpdate("DELETE FROM Closed_Request WHERE comment = ?", COMMENT);
+		this._esql.executeUpdate("DELETE FROM Service_Request WHERE complain = ?", COMMENT);
+		this._esql.executeUpdate("DELETE FROM Car WHERE vin LIKE 'BENCH%'");
+		this._esql.executeUpdate("DELETE FROM Mechanic WHERE fname = ?", MARKER);
+		this._esql.executeUpdate("DELETE FROM Customer WHERE fname = ?", MARKER);
+		this._service.getEntityCache().invalidateAll();
+	}
+
+	public void close() throws Exception {
+		try{
+			cleanUp();
+		}finally{
+			this._esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the MechanicShop operations against a local PostgreSQL
+ * database created with postgresql/createPostgreDB.sh. The operations live
+ * in the default-package ShopWorkload class, see there for why.
+ *
+ * Throughput mode reports ops/ms and SampleTime mode reports the latency
+ * distribution (p0.50, p0.99, ...). The statement strategy is varied with
+ * statementCacheSize and prepareThreshold: a cache size of 0 re-prepares
+ * every statement and a threshold of 0 never switches to server-side
+ * prepared statements.
+ *
+ *   mvn -Pbench package
+ *   java -jar target/benchmarks.jar -p dbname=$LOGNAME"_DB" -p user=$USER
+ *   java -jar target/benchmarks.jar -p seedDir=../data "ShopBenchmark.report.*"
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ShopBenchmark{
+	@Param({""})
+	public String dbname;
+
+	@Param({"5432"})
+	public String port;
+
+	@Param({""})
+	public String user;
+
+	//when set, the tables are truncated and reloaded from the CSV files in this directory
+	@Param({""})
+	public String seedDir;
+
+	@Param({"64", "0"})
+	public String statementCacheSize;
+
+	@Param({"5", "0"})
+	public String prepareThreshold;
+
+	private AutoCloseable _workload;
+	private Callable<Object> _addCustomer, _insertAndClose, _existsCustomer, _existsMechanic, _getCustomer, _findByLastName;
+	private Callable<Object> _billLessThan100, _moreThan20Cars, _carsBefore1995, _mostServicedCars, _totalBill;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put("dbname", this.dbname);
+		settings.put("port", this.port);
+		settings.put("user", this.user);
+		settings.put("seedDir", this.seedDir);
+		settings.put("statementCacheSize", this.statementCacheSize);
+		settings.put("prepareThreshold", this.prepareThreshold);
+		Object workload = Class.forName("ShopWorkload").getConstructor(Map.class).newInstance(settings);
+		this._workload = (AutoCloseable) workload;
+
+		Function<String, Callable<Object>> ops = (Function<String, Callable<Object>>) workload;
+		this._addCustomer = ops.apply("addCustomer");
+		this._insertAndClose = ops.apply("insertAndCloseServiceRequest");
+		this._existsCustomer = ops.apply("existsCustomer");
+		this._existsMechanic = ops.apply("existsMechanic");
+		this._getCustomer = ops.apply("getCustomer");
+		this._findByLastName = ops.apply("findCustomersByLastName");
+		this._billLessThan100 = ops.apply("reportBillLessThan100");
+		this._moreThan20Cars = ops.apply("reportMoreThan20Cars");
+		this._carsBefore1995 = ops.apply("reportCarsBefore1995");
+		this._mostServicedCars = ops.apply("reportMostServicedCars");
+		this._totalBill = ops.apply("reportTotalBill");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		this._workload.close();
+	}
+
+	@Benchmark
+	public Object addCustomer() throws Exception {
+		return this._addCustomer.call();
+	}
+
+	@Benchmark
+	public Object insertAndCloseServiceRequest() throws Exception {
+		return this._insertAndClose.call();
+	}
+
+	@Benchmark
+	public Object existsCustomer() throws Exception {
+		return this._existsCustomer.call();
+	}
+
+	@Benchmark
+	public Object existsMechanic() throws Exception {
+		return this._existsMechanic.call();
+	}
+
+	//existsCustomer's lookup served from the entity cache
+	@Benchmark
+	public Object getCustomer() throws Exception {
+		return this._getCustomer.call();
+	}
+
+	@Benchmark
+	public Object findCustomersByLastName() throws Exception {
+		return this._findByLastName.call();
+	}
+
+	@Benchmark
+	public Object reportBillLessThan100() throws Exception {
+		return this._billLessThan100.call();
+	}
+
+	@Benchmark
+	public Object reportMoreThan20Cars() throws Exception {
+		return this._moreThan20Cars.call();
+	}
+
+	@Benchmark
+	public Object reportCarsBefore1995() throws Exception {
+		return this._carsBefore1995.call();
+	}
+
+	@Benchmark
+	public Object reportMostServicedCars() throws Exception {
+		return this._mostServicedCars.call();
+	}
+
+	@Benchmark
+	public Object reportTotalBill() throws Exception {
+		return this._totalBill.call();
+	}
+}
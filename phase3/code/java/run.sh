@@ -4,4 +4,5 @@ PORT=$2
 USER=$3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+# Bulk load: source ./run.sh flightDB 5432 user --import ../data
+java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER "${@:4}"
@@ -0,0 +1,248 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buffers Service_Request and Closed_Request rows and writes them with
+ * JDBC batches, one transaction per batch. With the reWriteBatchedInserts
+ * connection property the driver folds each batch into multi-row INSERTs,
+ * so a batch costs a handful of round trips and a single commit.
+ *
+ * If a batch fails, it is replayed row by row inside one transaction with a
+ * savepoint per row, so the good rows are still committed and every bad row
+ * is reported through getErrors() instead of aborting the whole batch. A
+ * row is bad when it fails with a data exception (SQLState class 22) or an
+ * integrity constraint violation (class 23); any other error, such as a
+ * serialization failure, a deadlock or a lock timeout, rolls the batch back
+ * and is thrown by flush().
+ *
+ */
+public class BatchWriter implements AutoCloseable{
+	static final String INSERT_SERVICE_REQUEST = "INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, ?, ?, ?)";
+	static final String INSERT_CLOSED_REQUEST = "INSERT INTO Closed_Request(wid, rid, mid, date, comment, bill) VALUES (?, ?, ?, ?, ?, ?)";
+
+	/**
+	 * A row that could not be written.
+	 */
+	public static class RowError{
+		public final long rowNumber;
+		public final String table;
+		public final List<Object> values;
+		public final String message;
+
+		RowError(long rowNumber, String table, Object[] values, String message){
+			this.rowNumber = rowNumber;
+			this.table = table;
+			this.values = Arrays.asList(values);
+			this.message = message;
+		}
+
+		public String toString(){
+			return "row " + this.rowNumber + " (" + this.table + " " + this.values + "): " + this.message;
+		}
+	}
+
+	//a buffered row, remembering the number returned by add*()
+	private static class Row{
+		final long number;
+		final String table;
+		final String sql;
+		final Object[] values;
+
+		Row(long number, String table, String sql, Object[] values){
+			this.number = number;
+			this.table = table;
+			this.sql = sql;
+			this.values = values;
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final int _batchSize;
+	//service requests are written before closures so a batch may close the requests it opens
+	private final List<Row> _serviceRequests = new ArrayList<Row>();
+	private final List<Row> _closedRequests = new ArrayList<Row>();
+	private final List<RowError> _errors = new ArrayList<RowError>();
+	private long _rowCount = 0;
+	private long _written = 0;
+
+	/**
+	 * @param pool the pool the batches are written through
+	 * @param batchSize the number of buffered rows that triggers a flush
+	 */
+	public BatchWriter(ConnectionPool pool, int batchSize){
+		if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+		this._pool = pool;
+		this._batchSize = batchSize;
+	}
+
+	/**
+	 * Buffers a new service request, flushing if the batch is full.
+	 *
+	 * @return the row number used to report errors for this row
+	 * @throws java.sql.SQLException when a flush could not reach the database
+	 */
+	public long addServiceRequest(int rid, int customerId, String vin, Date date, int odometer, String complain) throws SQLException {
+		return add(this._serviceRequests, "Service_Request", INSERT_SERVICE_REQUEST,
+			new Object[]{rid, customerId, vin, date, odometer, complain});
+	}
+
+	/**
+	 * Buffers a closed request, flushing if the batch is full.
+	 *
+	 * @return the row number used to report errors for this row
+	 * @throws java.sql.SQLException when a flush could not reach the database
+	 */
+	public long addClosedRequest(int wid, int rid, int mid, Date date, String comment, int bill) throws SQLException {
+		return add(this._closedRequests, "Closed_Request", INSERT_CLOSED_REQUEST,
+			new Object[]{wid, rid, mid, date, comment, bill});
+	}
+
+	private long add(List<Row> rows, String table, String sql, Object[] values) throws SQLException {
+		long number = ++this._rowCount;
+		rows.add(new Row(number, table, sql, values));
+		if (this._serviceRequests.size() + this._closedRequests.size() >= this._batchSize){
+			flush();
+		}
+		return number;
+	}
+
+	/**
+	 * Writes every buffered row in one transaction.
+	 *
+	 * @return the number of rows written by this flush
+	 * @throws java.sql.SQLException when the database could not be reached;
+	 *         errors caused by individual rows are reported through getErrors().
+	 *         The rows stay buffered, so flush() or close() may be retried.
+	 */
+	public int flush() throws SQLException {
+		List<Row> rows = new ArrayList<Row>(this._serviceRequests.size() + this._closedRequests.size());
+		rows.addAll(this._serviceRequests);
+		rows.addAll(this._closedRequests);
+		if (rows.isEmpty()) return 0;
+
+		PooledConnection conn = this._pool.borrow();
+		Connection physical = conn.getConnection();
+		try{
+			physical.setAutoCommit(false);
+			int written;
+			//the rejected rows are only reported once the transaction that skipped them committed
+			List<RowError> errors = new ArrayList<RowError>();
+			try{
+				written = writeBatch(conn, rows);
+				physical.commit();
+			}catch (BatchUpdateException e){
+				// one bad row fails the whole batch, redo it row by row to find it
+				physical.rollback();
+				written = writeRowByRow(conn, rows, errors);
+				physical.commit();
+			}
+			// the rows are only dropped once they are in the database
+			this._serviceRequests.clear();
+			this._closedRequests.clear();
+			this._errors.addAll(errors);
+			this._written += written;
+			return written;
+		}catch (SQLException e){
+			conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			try{
+				physical.rollback();
+				physical.setAutoCommit(true);
+			}catch (SQLException e){
+				conn.markBroken();
+			}
+			this._pool.release(conn);
+		}
+	}
+
+	//sends the rows of each table as one JDBC batch
+	private int writeBatch(PooledConnection conn, List<Row> rows) throws SQLException {
+		int written = 0;
+		int start = 0;
+		while (start < rows.size()){
+			String sql = rows.get(start).sql;
+			PreparedStatement stmt = conn.prepare(sql);
+			try{
+				int end = start;
+				while (end < rows.size() && rows.get(end).sql.equals(sql)){
+					MechanicShop.bind(stmt, rows.get(end).values);
+					stmt.addBatch();
+					++end;
+				}
+				stmt.executeBatch();
+				written += end - start;
+				start = end;
+			}finally{
+				stmt.clearBatch();
+				conn.finish(stmt);
+			}
+		}
+		return written;
+	}
+
+	//writes the rows one at a time, rolling back to a savepoint for each failed row
+	private int writeRowByRow(PooledConnection conn, List<Row> rows, List<RowError> errors) throws SQLException {
+		int written = 0;
+		for (Row row : rows){
+			PreparedStatement stmt = conn.prepare(row.sql);
+			Savepoint savepoint = conn.getConnection().setSavepoint();
+			try{
+				MechanicShop.bind(stmt, row.values);
+				stmt.executeUpdate();
+				conn.getConnection().releaseSavepoint(savepoint);
+				++written;
+			}catch (SQLException e){
+				// only the row's own data or constraints make it bad, anything else fails the whole flush to be retried
+				String state = e.getSQLState();
+				if (state == null || !(state.startsWith("22") || state.startsWith("23"))) throw e;
+				conn.getConnection().rollback(savepoint);
+				errors.add(new RowError(row.number, row.table, row.values, e.getMessage()));
+			}finally{
+				conn.finish(stmt);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * @return the rows rejected so far
+	 */
+	public List<RowError> getErrors(){
+		return this._errors;
+	}
+
+	/**
+	 * @return the number of rows written so far
+	 */
+	public long getWrittenCount(){
+		return this._written;
+	}
+
+	/**
+	 * Flushes the remaining rows.
+	 */
+	public void close() throws SQLException {
+		flush();
+	}
+}
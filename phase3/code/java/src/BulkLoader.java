@@ -0,0 +1,205 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Loads the shop CSV files from the client machine with COPY ... FROM STDIN,
+ * so the files do not have to be on the database host. A parser thread reads
+ * and validates the file while the calling thread streams the already
+ * validated chunks to the server; at most QUEUE_CHUNKS chunks are buffered
+ * between the two, which keeps memory bounded for files of any size.
+ *
+ */
+public class BulkLoader{
+	//table, file name and column list, in foreign key dependency order
+	static final String[][] TABLES = {
+		{"Customer", "customer.csv", "id,fname,lname,phone,address"},
+		{"Mechanic", "mechanic.csv", "id,fname,lname,experience"},
+		{"Car", "car.csv", "vin,make,model,year"},
+		{"Owns", "owns.csv", "ownership_id,customer_id,car_vin"},
+		{"Service_Request", "service_request.csv", "rid,customer_id,car_vin,date,odometer,complain"},
+		{"Closed_Request", "closed_request.csv", "wid,rid,mid,date,comment,bill"}
+	};
+
+	private static final int CHUNK_BYTES = 1 << 20;
+	private static final int QUEUE_CHUNKS = 8;
+	private static final int MAX_REPORTED_ERRORS = 10;
+	//end of input marker put on the queue by the parser
+	private static final byte[] EOF = new byte[0];
+
+	private final ConnectionPool _pool;
+
+	public BulkLoader(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Loads every CSV file found in the directory, in dependency order.
+	 * Missing files are skipped.
+	 *
+	 * @param dir the directory containing customer.csv, car.csv, ...
+	 * @return the total number of rows loaded
+	 * @throws java.lang.Exception when a file cannot be read or the COPY fails
+	 */
+	public long loadAll(File dir) throws Exception {
+		long total = 0;
+		long start = System.nanoTime();
+		for (String[] table : TABLES){
+			File csv = new File(dir, table[1]);
+			if (!csv.isFile()){
+				System.out.println("Skipping " + table[0] + ": " + csv + " not found");
+				continue;
+			}
+			total += load(table[0], table[2], csv);
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Loaded %d rows in %.2fs (%.0f rows/s)", total, secs, total / Math.max(secs, 1e-9)));
+		return total;
+	}
+
+	/**
+	 * Streams one CSV file into a table with COPY FROM STDIN. Rows that do
+	 * not have the expected number of fields are rejected and reported.
+	 *
+	 * @param table the target table
+	 * @param columns the comma separated column list, in file order
+	 * @param csv the file to load
+	 * @return the number of rows loaded
+	 * @throws java.lang.Exception when the file cannot be read or the COPY fails
+	 */
+	public long load(String table, String columns, File csv) throws Exception {
+		int numCol = columns.split(",").length;
+		BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(QUEUE_CHUNKS);
+		Parser parser = new Parser(csv, numCol, chunks);
+		Thread parserThread = new Thread(parser, "csv-parser-" + table);
+		parserThread.setDaemon(true);
+
+		long start = System.nanoTime();
+		PooledConnection conn = this._pool.borrow();
+		CopyIn copy = null;
+		try{
+			CopyManager copyAPI = conn.getConnection().unwrap(PGConnection.class).getCopyAPI();
+			copy = copyAPI.copyIn("COPY " + table + " (" + columns + ") FROM STDIN WITH DELIMITER ','");
+			parserThread.start();
+			byte[] chunk;
+			while ((chunk = chunks.take()) != EOF){
+				copy.writeToCopy(chunk, 0, chunk.length);
+			}
+			if (parser.error != null){
+				throw parser.error;
+			}
+			long rows = copy.endCopy();
+			copy = null;
+			double secs = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("%-16s %10d rows %8d rejected %8.2fs %10.0f rows/s",
+				table, rows, parser.rejected, secs, rows / Math.max(secs, 1e-9)));
+			return rows;
+		}catch (SQLException e){
+			conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			parser.stop = true;
+			parserThread.interrupt();
+			if (copy != null && copy.isActive()){
+				try{
+					copy.cancelCopy();
+				}catch (SQLException e){
+					conn.markBroken();
+				}
+			}
+			this._pool.release(conn);
+		}
+	}
+
+	/**
+	 * Reads the CSV file line by line, rejects malformed rows and hands
+	 * the rest to the uploader in chunks of about CHUNK_BYTES bytes.
+	 */
+	private static class Parser implements Runnable{
+		private final File _csv;
+		private final int _numCol;
+		private final BlockingQueue<byte[]> _chunks;
+		volatile boolean stop = false;
+		volatile Exception error = null;
+		volatile long rejected = 0;
+
+		Parser(File csv, int numCol, BlockingQueue<byte[]> chunks){
+			this._csv = csv;
+			this._numCol = numCol;
+			this._chunks = chunks;
+		}
+
+		public void run(){
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this._csv), StandardCharsets.UTF_8), 1 << 16)){
+				StringBuilder chunk = new StringBuilder(CHUNK_BYTES + 1024);
+				String line;
+				long lineNumber = 0;
+				while (!this.stop && (line = reader.readLine()) != null){
+					++lineNumber;
+					if (line.isEmpty()) continue;
+					if (!isValid(line)){
+						if (++this.rejected <= MAX_REPORTED_ERRORS){
+							System.err.println(this._csv.getName() + ":" + lineNumber + ": expected " + this._numCol + " fields, skipping: " + line);
+						}
+						continue;
+					}
+					chunk.append(line).append('\n');
+					if (chunk.length() >= CHUNK_BYTES){
+						put(chunk.toString().getBytes(StandardCharsets.UTF_8));
+						chunk.setLength(0);
+					}
+				}
+				if (chunk.length() > 0) put(chunk.toString().getBytes(StandardCharsets.UTF_8));
+			}catch (IOException e){
+				this.error = e;
+			}catch (InterruptedException e){
+				// the upload was aborted.
+				return;
+			}
+			try{
+				put(EOF);
+			}catch (InterruptedException e){
+				// the upload was aborted.
+			}
+		}
+
+		//counts the fields without splitting the line
+		private boolean isValid(String line){
+			int fields = 1;
+			for (int i = 0; i < line.length(); ++i){
+				if (line.charAt(i) == ',') ++fields;
+			}
+			return fields == this._numCol;
+		}
+
+		private void put(byte[] chunk) throws InterruptedException {
+			while (!this._chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)){
+				if (this.stop) throw new InterruptedException();
+			}
+		}
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A query result stored by column in primitive arrays. INTEGER and SMALLINT
+ * columns are kept in an int[], BIGINT in a long[] and DATE as epoch days in
+ * an int[], so a cell costs 4 or 8 bytes instead of a String and its array.
+ * Every other column is dictionary encoded: each distinct value is stored
+ * once and the cells are int[] codes into the dictionary, which shrinks
+ * repetitive columns such as make and model to a handful of strings.
+ * NULLs are tracked per column in a BitSet.
+ *
+ * getString returns the same text as ResultSet.getString, so QueryResult can
+ * expose the old List<List<String>> rows as a view over this without
+ * materializing them. The result is immutable once read.
+ *
+ */
+public class ColumnarResult{
+	public enum Type{ INT, LONG, DATE, STRING }
+
+	private static abstract class Column{
+		final String name;
+		final BitSet nulls = new BitSet();
+
+		Column(String name){
+			this.name = name;
+		}
+
+		abstract Type type();
+		//reads the current row of the result set into row
+		abstract void read(ResultSet rs, int index, int row) throws SQLException;
+		abstract String getString(int row);
+		//shrinks the storage to the number of rows
+		abstract void trim(int rows);
+	}
+
+	private static class IntColumn extends Column{
+		final Type type;
+		int[] values = new int[16];
+
+		IntColumn(String name, Type type){
+			super(name);
+			this.type = type;
+		}
+
+		Type type(){
+			return this.type;
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if (row == this.values.length) this.values = Arrays.copyOf(this.values, row * 2);
+			if (this.type == Type.DATE){
+				Date date = rs.getDate(index);
+				if (date == null) this.nulls.set(row);
+				else this.values[row] = (int) date.toLocalDate().toEpochDay();
+			}else{
+				this.values[row] = rs.getInt(index);
+				if (rs.wasNull()) this.nulls.set(row);
+			}
+		}
+
+		String getString(int row){
+			if (this.nulls.get(row)) return null;
+			return this.type == Type.DATE ? LocalDate.ofEpochDay(this.values[row]).toString() : Integer.toString(this.values[row]);
+		}
+
+		void trim(int rows){
+			this.values = Arrays.copyOf(this.values, rows);
+		}
+	}
+
+	private static class LongColumn extends Column{
+		long[] values = new long[16];
+
+		LongColumn(String name){
+			super(name);
+		}
+
+		Type type(){
+			return Type.LONG;
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if (row == this.values.length) this.values = Arrays.copyOf(this.values, row * 2);
+			this.values[row] = rs.getLong(index);
+			if (rs.wasNull()) this.nulls.set(row);
+		}
+
+		String getString(int row){
+			return this.nulls.get(row) ? null : Long.toString(this.values[row]);
+		}
+
+		void trim(int rows){
+			this.values = Arrays.copyOf(this.values, rows);
+		}
+	}
+
+	private static class StringColumn extends Column{
+		int[] codes = new int[16];
+		List<String> dictionary = new ArrayList<String>();
+		//value to code, only needed while the column is being read
+		HashMap<String, Integer> lookup = new HashMap<String, Integer>();
+
+		StringColumn(String name){
+			super(name);
+		}
+
+		Type type(){
+			return Type.STRING;
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			add(rs.getString(index), row);
+		}
+
+		void add(String value, int row){
+			if (row == this.codes.length) this.codes = Arrays.copyOf(this.codes, row * 2);
+			if (value == null){
+				this.nulls.set(row);
+				return;
+			}
+			Integer code = this.lookup.get(value);
+			if (code == null){
+				code = this.dictionary.size();
+				this.dictionary.add(value);
+				this.lookup.put(value, code);
+			}
+			this.codes[row] = code;
+		}
+
+		String getString(int row){
+			return this.nulls.get(row) ? null : this.dictionary.get(this.codes[row]);
+		}
+
+		void trim(int rows){
+			this.codes = Arrays.copyOf(this.codes, rows);
+			this.dictionary = Arrays.asList(this.dictionary.toArray(new String[0]));
+			this.lookup = null;
+		}
+	}
+
+	private final Column[] _columns;
+	private int _rows = 0;
+
+	private ColumnarResult(Column[] columns){
+		this._columns = columns;
+	}
+
+	/**
+	 * Reads every remaining row of a result set and closes it.
+	 *
+	 * @param rs the result set
+	 * @param sample counts the rows and bytes read
+	 * @return the result
+	 * @throws java.sql.SQLException when a row cannot be read
+	 */
+	public static ColumnarResult read(ResultSet rs, Metrics.Sample sample) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int numCol = rsmd.getColumnCount();
+		Column[] columns = new Column[numCol];
+		for (int i = 1; i <= numCol; ++i){
+			String name = rsmd.getColumnName(i);
+			switch (rsmd.getColumnType(i)){
+				case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT: columns[i - 1] = new IntColumn(name, Type.INT); break;
+				case Types.DATE: columns[i - 1] = new IntColumn(name, Type.DATE); break;
+				case Types.BIGINT: columns[i - 1] = new LongColumn(name); break;
+				default: columns[i - 1] = new StringColumn(name);
+			}
+		}
+		ColumnarResult result = new ColumnarResult(columns);
+		while (rs.next()){
+			sample.row(rs, numCol);
+			for (int i = 0; i < numCol; ++i)
+				columns[i].read(rs, i + 1, result._rows);
+			++result._rows;
+		}
+		rs.close();
+		result.trim();
+		return result;
+	}
+
+	/**
+	 * Builds a result from rows that are already strings. Every column is
+	 * dictionary encoded.
+	 *
+	 * @param columns the column names
+	 * @param rows the rows, each with one value per column
+	 * @return the result
+	 */
+	public static ColumnarResult ofStrings(List<String> columns, List<List<String>> rows){
+		StringColumn[] stringColumns = new StringColumn[columns.size()];
+		for (int i = 0; i < stringColumns.length; ++i)
+			stringColumns[i] = new StringColumn(columns.get(i));
+		ColumnarResult result = new ColumnarResult(stringColumns);
+		for (List<String> row : rows){
+			for (int i = 0; i < stringColumns.length; ++i)
+				stringColumns[i].add(row.get(i), result._rows);
+			++result._rows;
+		}
+		result.trim();
+		return result;
+	}
+
+	private void trim(){
+		for (Column column : this._columns)
+			column.trim(this._rows);
+	}
+
+	public int getRowCount(){
+		return this._rows;
+	}
+
+	public int getColumnCount(){
+		return this._columns.length;
+	}
+
+	/**
+	 * @param column the 0-based column
+	 * @return the column name
+	 */
+	public String getColumnName(int column){
+		return this._columns[column].name;
+	}
+
+	/**
+	 * @param column the 0-based column
+	 * @return how the column is stored, which decides the accessors it supports
+	 */
+	public Type getType(int column){
+		return this._columns[column].type();
+	}
+
+	/**
+	 * @param name a column name, ignoring case
+	 * @return the 0-based column, or -1 when there is none
+	 */
+	public int findColumn(String name){
+		for (int i = 0; i < this._columns.length; ++i)
+			if (this._columns[i].name.equalsIgnoreCase(name)) return i;
+		return -1;
+	}
+
+	public boolean isNull(int row, int column){
+		checkRow(row);
+		return this._columns[column].nulls.get(row);
+	}
+
+	/**
+	 * @return the value of an INT column, 0 for NULL
+	 * @throws IllegalStateException when the column is not an INT column
+	 */
+	public int getInt(int row, int column){
+		checkRow(row);
+		Column c = this._columns[column];
+		if (c.type() != Type.INT) throw new IllegalStateException("Column " + c.name + " is " + c.type() + ", not INT");
+		return ((IntColumn) c).values[row];
+	}
+
+	/**
+	 * @return the value of an INT or LONG column, 0 for NULL
+	 * @throws IllegalStateException when the column is not numeric
+	 */
+	public long getLong(int row, int column){
+		checkRow(row);
+		Column c = this._columns[column];
+		if (c.type() == Type.LONG) return ((LongColumn) c).values[row];
+		if (c.type() == Type.INT) return ((IntColumn) c).values[row];
+		throw new IllegalStateException("Column " + c.name + " is " + c.type() + ", not LONG");
+	}
+
+	/**
+	 * @return the value of a DATE column, null for NULL
+	 * @throws IllegalStateException when the column is not a DATE column
+	 */
+	public LocalDate getDate(int row, int column){
+		checkRow(row);
+		Column c = this._columns[column];
+		if (c.type() != Type.DATE) throw new IllegalStateException("Column " + c.name + " is " + c.type() + ", not DATE");
+		return c.nulls.get(row) ? null : LocalDate.ofEpochDay(((IntColumn) c).values[row]);
+	}
+
+	/**
+	 * @return the value of any column as ResultSet.getString would return it
+	 */
+	public String getString(int row, int column){
+		checkRow(row);
+		return this._columns[column].getString(row);
+	}
+
+	private void checkRow(int row){
+		if (row < 0 || row >= this._rows) throw new IndexOutOfBoundsException("Row " + row + " of " + this._rows);
+	}
+}
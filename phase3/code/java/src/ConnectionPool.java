@@ -0,0 +1,266 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of PostgreSQL connections. At most maxSize connections are
+ * open at any time and at least minSize are kept warm. Connections that sat
+ * idle for longer than the validation interval are checked with isValid()
+ * before they are handed out, and connections idle for longer than the idle
+ * timeout are closed by a background evictor (never going below minSize).
+ *
+ */
+public class ConnectionPool{
+	private final String _url;
+	private final Properties _props;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _borrowTimeoutMillis;
+	private final long _idleTimeoutMillis;
+	private final long _validationIntervalMillis;
+	private final int _statementCacheSize;
+
+	//idle connections, most recently used first
+	private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+	//one permit per connection that may still be borrowed
+	private final Semaphore _permits;
+	private final AtomicInteger _open = new AtomicInteger();
+	private final ScheduledExecutorService _evictor;
+	private volatile boolean _closed = false;
+
+	//pool metrics
+	private final AtomicLong _borrowed = new AtomicLong();
+	private final AtomicLong _borrowWaitNanos = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+	private final AtomicLong _created = new AtomicLong();
+	private final AtomicLong _destroyed = new AtomicLong();
+	private final AtomicLong _validationFailures = new AtomicLong();
+	private final AtomicLong _statementHits = new AtomicLong();
+	private final AtomicLong _statementMisses = new AtomicLong();
+	private final AtomicLong _statementEvictions = new AtomicLong();
+
+	/**
+	 * Creates the pool and opens minSize connections up front.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param props the connection properties (user, password, driver options)
+	 * @param minSize the number of connections kept open when idle
+	 * @param maxSize the maximum number of open connections
+	 * @param borrowTimeoutMillis how long borrow() waits for a free connection
+	 * @param idleTimeoutMillis how long a connection may stay idle before it is closed
+	 * @param statementCacheSize the number of prepared statements cached per connection, 0 to disable
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public ConnectionPool(String url, Properties props, int minSize, int maxSize, long borrowTimeoutMillis, long idleTimeoutMillis, int statementCacheSize) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize){
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+		}
+		this._url = url;
+		this._props = props;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._borrowTimeoutMillis = borrowTimeoutMillis;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._validationIntervalMillis = Math.min(5000, idleTimeoutMillis);
+		this._statementCacheSize = statementCacheSize;
+		this._permits = new Semaphore(maxSize, true);
+
+		//open the minimum number of connections so the first callers don't pay for them
+		for (int i = 0; i < minSize; ++i){
+			this._idle.offerLast(newConnection());
+		}
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection from the pool, opening a new one if none is idle
+	 * and the pool is below its maximum size. Every borrowed connection must
+	 * be handed back with release().
+	 *
+	 * @return a validated connection
+	 * @throws java.sql.SQLException when no connection became available within the borrow timeout
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (this._closed) throw new SQLException("Connection pool is closed");
+		long start = System.nanoTime();
+		try{
+			if (!this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS)){
+				this._timeouts.incrementAndGet();
+				throw new SQLException("Timed out after " + this._borrowTimeoutMillis + " ms waiting for a database connection", "08001");
+			}
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", "08001");
+		}
+
+		try{
+			PooledConnection conn;
+			while ((conn = this._idle.pollFirst()) != null){
+				if (isUsable(conn)) break;
+				this._validationFailures.incrementAndGet();
+				destroy(conn);
+			}
+			if (conn == null) conn = newConnection();
+			this._borrowed.incrementAndGet();
+			this._borrowWaitNanos.addAndGet(System.nanoTime() - start);
+			return conn;
+		}catch (SQLException e){
+			this._permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Hands a borrowed connection back to the pool. Broken or closed
+	 * connections are discarded instead of being reused.
+	 *
+	 * @param conn the connection returned by borrow(), may be null
+	 */
+	public void release(PooledConnection conn){
+		if (conn == null) return;
+		try{
+			boolean reusable = !this._closed && !conn.isBroken() && !conn.getConnection().isClosed();
+			if (reusable && !conn.getConnection().getAutoCommit()){
+				//never hand out a connection in the middle of a transaction
+				conn.getConnection().rollback();
+				conn.getConnection().setAutoCommit(true);
+			}
+			if (reusable){
+				conn.touch();
+				this._idle.offerFirst(conn);
+			}else{
+				destroy(conn);
+			}
+		}catch (SQLException e){
+			destroy(conn);
+		}finally{
+			this._permits.release();
+		}
+	}
+
+	/**
+	 * Closes idle connections that exceeded the idle timeout, keeping at
+	 * least minSize open, and tops the pool back up to minSize.
+	 */
+	private void evictIdle(){
+		long now = System.currentTimeMillis();
+		Iterator<PooledConnection> it = this._idle.descendingIterator();
+		while (it.hasNext()){
+			PooledConnection conn = it.next();
+			if (this._open.get() <= this._minSize) break;
+			if (now - conn.getLastUsedAt() > this._idleTimeoutMillis && this._idle.remove(conn)){
+				destroy(conn);
+			}
+		}
+		try{
+			while (!this._closed && this._open.get() < this._minSize){
+				this._idle.offerLast(newConnection());
+			}
+		}catch (SQLException e){
+			// the database is unreachable, retry on the next run.
+		}
+	}
+
+	private boolean isUsable(PooledConnection conn){
+		try{
+			if (conn.getConnection().isClosed()) return false;
+			//recently used connections are trusted without a round trip
+			if (System.currentTimeMillis() - conn.getLastUsedAt() < this._validationIntervalMillis) return true;
+			return conn.getConnection().isValid(2);
+		}catch (SQLException e){
+			return false;
+		}
+	}
+
+	private PooledConnection newConnection() throws SQLException {
+		Connection physical = DriverManager.getConnection(this._url, this._props);
+		StatementCache statements = new StatementCache(physical, this._statementCacheSize,
+			this._statementHits, this._statementMisses, this._statementEvictions);
+		PooledConnection conn = new PooledConnection(physical, statements);
+		this._open.incrementAndGet();
+		this._created.incrementAndGet();
+		return conn;
+	}
+
+	private void destroy(PooledConnection conn){
+		conn.closeQuietly();
+		this._open.decrementAndGet();
+		this._destroyed.incrementAndGet();
+	}
+
+	public int getOpenCount(){
+		return this._open.get();
+	}
+
+	public int getIdleCount(){
+		return this._idle.size();
+	}
+
+	public int getActiveCount(){
+		return this._maxSize - this._permits.availablePermits();
+	}
+
+	/**
+	 * @return a one line summary of the pool metrics
+	 */
+	public String getStats(){
+		long borrowed = this._borrowed.get();
+		double avgWaitMillis = borrowed == 0 ? 0 : this._borrowWaitNanos.get() / 1e6 / borrowed;
+		return String.format("pool: open=%d idle=%d active=%d max=%d borrowed=%d avgWait=%.3fms timeouts=%d created=%d destroyed=%d validationFailures=%d",
+			getOpenCount(), getIdleCount(), getActiveCount(), this._maxSize, borrowed, avgWaitMillis,
+			this._timeouts.get(), this._created.get(), this._destroyed.get(), this._validationFailures.get());
+	}
+
+	/**
+	 * @return a one line summary of the prepared statement cache hit/miss counts
+	 */
+	public String getStatementCacheStats(){
+		long hits = this._statementHits.get();
+		long total = hits + this._statementMisses.get();
+		double hitRate = total == 0 ? 0 : 100.0 * hits / total;
+		return String.format("statement cache: size=%d/conn hits=%d misses=%d evictions=%d hitRate=%.1f%%",
+			this._statementCacheSize, hits, this._statementMisses.get(), this._statementEvictions.get(), hitRate);
+	}
+
+	/**
+	 * Closes every idle connection and stops the evictor. Connections that
+	 * are still borrowed are closed when they are released.
+	 */
+	public void close(){
+		this._closed = true;
+		this._evictor.shutdownNow();
+		PooledConnection conn;
+		while ((conn = this._idle.pollFirst()) != null){
+			destroy(conn);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Finds customers by part of their first name, last name or phone number,
+ * ignoring case and the CHAR padding. Terms of three characters or more are
+ * matched as a substring or, failing that, by trigram word similarity, so
+ * "smi", "SMITH" and "smtih" all find Smith; shorter terms must be a whole
+ * last name. A term made of phone characters only, such as "(473) 259",
+ * is matched against the digits of the phone.
+ *
+ * Results are ranked with the customers having a word starting with the
+ * term first, then by similarity, and returned one page at a time. The
+ * indexes behind the queries are created by sql/customer_search.sql; when
+ * it was not run every search falls back to a scan of the last names.
+ *
+ */
+public class CustomerSearch{
+	static final int MIN_TRIGRAM_LENGTH = 3;
+
+	//customer_search_text is indexed with gin_trgm_ops, every predicate below goes through it
+	static final String SEARCH = "SELECT id AS Customer_ID, fname AS First_Name, lname AS Last_Name, phone AS Phone_Number, address FROM Customer " +
+		"WHERE customer_search_text(fname, lname, phone) LIKE ? OR ? <% customer_search_text(fname, lname, phone) " +
+		"ORDER BY ' ' || customer_search_text(fname, lname, phone) LIKE ? DESC, word_similarity(?, customer_search_text(fname, lname, phone)) DESC, id " +
+		"LIMIT ? OFFSET ?";
+	static final String SEARCH_SHORT = "SELECT id AS Customer_ID, fname AS First_Name, lname AS Last_Name, phone AS Phone_Number, address FROM Customer " +
+		"WHERE lower(btrim(lname)) = ? ORDER BY fname, id LIMIT ? OFFSET ?";
+	static final String SEARCH_WITHOUT_INDEX = "SELECT id AS Customer_ID, fname AS First_Name, lname AS Last_Name, phone AS Phone_Number, address FROM Customer " +
+		"WHERE lower(btrim(lname)) LIKE ? ORDER BY lname, fname, id LIMIT ? OFFSET ?";
+
+	private final MechanicShop _esql;
+	//whether sql/customer_search.sql was run, looked up on the first search
+	private volatile Boolean _indexed = null;
+
+	public CustomerSearch(MechanicShop esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Returns one page of the customers matching a term.
+	 *
+	 * @param term part of a name or phone number
+	 * @param limit the page size
+	 * @param offset the number of matches to skip
+	 * @return the page, best matches first
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public QueryResult search(String term, int limit, int offset) throws SQLException {
+		String normalized = normalize(term);
+		if (normalized.isEmpty()) throw new IllegalArgumentException("The search term must not be empty");
+		if (limit <= 0 || offset < 0) throw new IllegalArgumentException("Invalid page: limit=" + limit + ", offset=" + offset);
+		if (!isIndexed()) return this._esql.executeQueryAndReturnTable(SEARCH_WITHOUT_INDEX, escapeLike(normalized) + "%", limit, offset);
+		if (normalized.length() < MIN_TRIGRAM_LENGTH) return this._esql.executeQueryAndReturnTable(SEARCH_SHORT, normalized, limit, offset);
+		String escaped = escapeLike(normalized);
+		return this._esql.executeQueryAndReturnTable(SEARCH, "%" + escaped + "%", normalized, "% " + escaped + "%", normalized, limit, offset);
+	}
+
+	private boolean isIndexed() throws SQLException {
+		Boolean indexed = this._indexed;
+		if (indexed == null){
+			indexed = this._esql.executeQuery("SELECT 1 FROM pg_proc WHERE proname = 'customer_search_text'") > 0;
+			this._indexed = indexed;
+		}
+		return indexed;
+	}
+
+	//the term in the form customer_search_text stores: lower case, single spaces, phone digits only
+	static String normalize(String term){
+		if (term == null) return "";
+		String normalized = term.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+		if (normalized.matches("[0-9()+\\-. ]*[0-9][0-9()+\\-. ]*")) normalized = normalized.replaceAll("[^0-9]", "");
+		return normalized;
+	}
+
+	//LIKE treats % and _ as wildcards and \ as the escape character
+	static String escapeLike(String s){
+		return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * Generates a synthetic shop dataset at a multiple of the size of the seed
+ * data in ../data (500 customers, 250 mechanics, 5,000 cars, 30,000 service
+ * requests), either as CSV files that --import and BulkLoader understand or
+ * streamed straight into the tables with COPY FROM STDIN.
+ *
+ * Every value is a pure function of (seed, table, row number), so the output
+ * does not depend on the number of threads. Rows are generated in blocks by
+ * a thread pool and written in block order; at most two blocks per thread
+ * are held in memory at any time.
+ *
+ * The data is referentially consistent: every car has exactly one owner and
+ * a service request is always filed by the owner of the car. It is also
+ * skewed the way the production data is: 1% of the customers are fleets that
+ * own about 100 cars each, 0.5% of the cars receive a quarter of all service
+ * requests, about 15% of the cars are older than 1995 and 5% of the service
+ * requests are still open.
+ *
+ * Usage: java DataGenerator <scale> <csv dir>
+ *        java DataGenerator <scale> <dbname> <port> <user>
+ *
+ * The seed and the number of threads are set with -Dgen.seed=... and
+ * -Dgen.threads=...
+ *
+ */
+public class DataGenerator{
+	//row counts of the seed data, multiplied by the scale factor
+	static final int BASE_CUSTOMERS = 500;
+	static final int BASE_MECHANICS = 250;
+	static final int BASE_CARS = 5000;
+	static final int BASE_REQUESTS = 30000;
+
+	//table numbers, the same order as BulkLoader.TABLES
+	private static final int CUSTOMER = 0, MECHANIC = 1, CAR = 2, OWNS = 3, SERVICE_REQUEST = 4, CLOSED_REQUEST = 5;
+	//random streams that are not tied to one table
+	private static final int OWNER = 6, VIN = 7, REQUEST_DATE = 8;
+
+	private static final int BLOCK_ROWS = 8192;
+	private static final long FIRST_DAY = LocalDate.of(2010, 1, 1).toEpochDay();
+
+	private static final String[] FIRST_NAMES = {"Armand", "Alberto", "Wyatt", "Alexandria", "Rory", "Blythe", "Maria",
+		"James", "Linda", "Robert", "Patricia", "Michael", "Jennifer", "David", "Elizabeth", "Daniel", "Susan", "Joseph",
+		"Jessica", "Thomas", "Sarah", "Charles", "Karen", "Matthew", "Nancy", "Anthony", "Lisa", "Mark", "Betty", "Steven"};
+	private static final String[] LAST_NAMES = {"Enderle", "Scarlett", "Ruoff", "Cuyler", "Berner", "Santacruz", "Smith",
+		"Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez",
+		"Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White"};
+	private static final String[] STREETS = {"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Main Street", "Oak Lane",
+		"Pine Road", "Maple Ave.", "Cedar Court", "Elm Street", "Lake View Drive", "Sunset Blvd.", "Park Place"};
+	private static final String[] CITIES = {"Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Fresno", "Austin",
+		"Portland", "Denver", "Tucson", "Omaha", "Raleigh", "Boise"};
+	private static final String[][] MAKES = {
+		{"Toyota", "Prius", "Camry", "Corolla"}, {"Ford", "Focus", "Fiesta", "F150"}, {"Honda", "Civic", "Accord", "Fit"},
+		{"Lamborghini", "M1", "Diablo", "Gallardo"}, {"Chevrolet", "Malibu", "Impala", "Spark"}, {"Nissan", "Sunny", "Altima", "Leaf"},
+		{"BMW", "X5", "M3", "i3"}, {"Volkswagen", "Golf", "Jetta", "Beetle"}};
+	private static final String[] COMPLAINTS = {"No brakes", "The wheel does not turn right", "Burns too much gas",
+		"Engine makes a noise", "Check engine light is on", "Flat tire", "Battery is dead", "Air conditioning is broken",
+		"Oil leak", "Transmission slips"};
+	private static final String[] COMMENTS = {"We lost your car", "We changed the color", "This is a bicycle",
+		"Replaced the brake pads", "Changed the oil", "Replaced the battery", "Fixed the leak", "Rotated the tires",
+		"Nothing was wrong", "Replaced the transmission"};
+
+	private final long _seed;
+	private final int _threads;
+	private final long _customers;
+	private final long _mechanics;
+	private final long _cars;
+	private final long _requests;
+
+	/**
+	 * @param scale the size of the dataset relative to the seed data, e.g. 10 or 1000
+	 * @param seed the random seed, the same seed always produces the same data
+	 * @param threads the number of generator threads
+	 */
+	public DataGenerator(double scale, long seed, int threads){
+		if (scale <= 0) throw new IllegalArgumentException("The scale factor must be positive");
+		this._seed = seed;
+		this._threads = Math.max(1, threads);
+		this._customers = Math.max(1, Math.round(BASE_CUSTOMERS * scale));
+		this._mechanics = Math.max(1, Math.round(BASE_MECHANICS * scale));
+		this._cars = Math.max(1, Math.round(BASE_CARS * scale));
+		this._requests = Math.max(1, Math.round(BASE_REQUESTS * scale));
+		if (this._requests > Integer.MAX_VALUE) throw new IllegalArgumentException("The scale factor is too large");
+	}
+
+	/**
+	 * Writes one CSV file per table into the directory, using the file names
+	 * expected by BulkLoader.
+	 *
+	 * @param dir the output directory, created if needed
+	 * @return the total number of rows written
+	 * @throws java.lang.Exception when a file cannot be written
+	 */
+	public long generateAll(File dir) throws Exception {
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+		long total = 0;
+		long start = System.nanoTime();
+		for (int table = 0; table < BulkLoader.TABLES.length; ++table){
+			long tableStart = System.nanoTime();
+			long rows;
+			try(OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir, BulkLoader.TABLES[table][1])), 1 << 16)){
+				rows = generate(table, out);
+			}
+			report(BulkLoader.TABLES[table][1], rows, tableStart);
+			total += rows;
+		}
+		report("total", total, start);
+		return total;
+	}
+
+	/**
+	 * Streams every table into the database with COPY FROM STDIN, in foreign
+	 * key order. Each table is loaded by a single COPY, so a failure leaves
+	 * the tables that were already loaded in place.
+	 *
+	 * @param pool the pool the COPY connection is borrowed from
+	 * @return the total number of rows loaded
+	 * @throws java.lang.Exception when the COPY fails
+	 */
+	public long generateAll(ConnectionPool pool) throws Exception {
+		long total = 0;
+		long start = System.nanoTime();
+		for (int table = 0; table < BulkLoader.TABLES.length; ++table){
+			String[] target = BulkLoader.TABLES[table];
+			long tableStart = System.nanoTime();
+			PooledConnection conn = pool.borrow();
+			PGCopyOutputStream copy = null;
+			try{
+				copy = new PGCopyOutputStream(conn.getConnection().unwrap(PGConnection.class),
+					"COPY " + target[0] + " (" + target[2] + ") FROM STDIN WITH DELIMITER ','", 1 << 16);
+				generate(table, copy);
+				long rows = copy.endCopy();
+				copy = null;
+				report(target[0], rows, tableStart);
+				total += rows;
+			}catch (SQLException e){
+				conn.markBrokenIf(e);
+				throw e;
+			}finally{
+				if (copy != null && copy.isActive()){
+					try{
+						copy.cancelCopy();
+					}catch (SQLException e){
+						conn.markBroken();
+					}
+				}
+				pool.release(conn);
+			}
+		}
+		report("total", total, start);
+		return total;
+	}
+
+	/**
+	 * Generates one table in row order. The stream is not closed.
+	 *
+	 * @param table the table number, an index into BulkLoader.TABLES
+	 * @param out receives the rows as comma separated lines
+	 * @return the number of rows written
+	 * @throws java.lang.Exception when the stream fails
+	 */
+	public long generate(int table, OutputStream out) throws Exception {
+		long rows = rowCount(table);
+		long blocks = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+		long written = 0;
+		ExecutorService workers = Executors.newFixedThreadPool(this._threads, r -> {
+			Thread t = new Thread(r, "data-generator");
+			t.setDaemon(true);
+			return t;
+		});
+		try{
+			ArrayDeque<Future<Block>> window = new ArrayDeque<Future<Block>>();
+			for (long b = 0; b < blocks; ++b){
+				long first = b * BLOCK_ROWS;
+				long last = Math.min(rows, first + BLOCK_ROWS);
+				window.add(workers.submit(() -> block(table, first, last)));
+				if (window.size() >= 2 * this._threads) written += write(window.poll(), out);
+			}
+			while (!window.isEmpty()){
+				written += write(window.poll(), out);
+			}
+		}finally{
+			workers.shutdownNow();
+		}
+		out.flush();
+		return written;
+	}
+
+	//waits for the next block in order and writes it
+	private static int write(Future<Block> next, OutputStream out) throws IOException, InterruptedException {
+		try{
+			Block block = next.get();
+			out.write(block.data);
+			return block.rows;
+		}catch (ExecutionException e){
+			throw new IllegalStateException("Generator thread failed", e.getCause());
+		}
+	}
+
+	private static class Block{
+		final byte[] data;
+		final int rows;
+
+		Block(byte[] data, int rows){
+			this.data = data;
+			this.rows = rows;
+		}
+	}
+
+	private long rowCount(int table){
+		switch (table){
+			case CUSTOMER: return this._customers;
+			case MECHANIC: return this._mechanics;
+			case CAR: case OWNS: return this._cars;
+			case SERVICE_REQUEST: case CLOSED_REQUEST: return this._requests;
+			default: throw new IllegalArgumentException("Unknown table " + table);
+		}
+	}
+
+	//generates rows [first, last) of a table
+	private Block block(int table, long first, long last){
+		StringBuilder sb = new StringBuilder((int) (last - first) * 64);
+		int rows = 0;
+		for (long i = first; i < last; ++i){
+			if (row(table, i, random(table, i), sb)) ++rows;
+		}
+		return new Block(sb.toString().getBytes(StandardCharsets.UTF_8), rows);
+	}
+
+	//appends row i of the table, returns false when the row is skipped
+	private boolean row(int table, long i, SplittableRandom rnd, StringBuilder sb){
+		switch (table){
+			case CUSTOMER:
+				sb.append(i).append(',').append(pick(FIRST_NAMES, rnd)).append(',').append(pick(LAST_NAMES, rnd)).append(',');
+				sb.append('(').append(100 + rnd.nextInt(900)).append(')').append(100 + rnd.nextInt(900)).append('-').append(1000 + rnd.nextInt(9000)).append(',');
+				sb.append(1 + rnd.nextInt(9999)).append(' ').append(pick(STREETS, rnd)).append(' ').append(pick(CITIES, rnd)).append('\n');
+				return true;
+			case MECHANIC:
+				sb.append(i).append(',').append(pick(FIRST_NAMES, rnd)).append(',').append(pick(LAST_NAMES, rnd)).append(',').append(rnd.nextInt(41)).append('\n');
+				return true;
+			case CAR:
+				String[] make = MAKES[rnd.nextInt(MAKES.length)];
+				// about 15% of the cars are older than 1995
+				int year = rnd.nextInt(100) < 15 ? 1970 + rnd.nextInt(25) : 1995 + rnd.nextInt(26);
+				sb.append(vin(i)).append(',').append(make[0]).append(',').append(make[1 + rnd.nextInt(make.length - 1)]).append(',').append(year).append('\n');
+				return true;
+			case OWNS:
+				sb.append(i).append(',').append(ownerOf(i)).append(',').append(vin(i)).append('\n');
+				return true;
+			case SERVICE_REQUEST:
+				long car = serviceCar(rnd);
+				sb.append(i).append(',').append(ownerOf(car)).append(',').append(vin(car)).append(',').append(requestDate(i)).append(',');
+				sb.append(1 + rnd.nextInt(300000)).append(',').append(pick(COMPLAINTS, rnd)).append('\n');
+				return true;
+			case CLOSED_REQUEST:
+				// 5% of the requests are still open
+				if (rnd.nextInt(100) < 5) return false;
+				sb.append(i).append(',').append(i).append(',').append(rnd.nextLong(this._mechanics)).append(',');
+				sb.append(LocalDate.ofEpochDay(requestDate(i).toEpochDay() + rnd.nextInt(31))).append(',').append(pick(COMMENTS, rnd)).append(',');
+				// about 20% of the bills are under 100
+				sb.append(rnd.nextInt(100) < 20 ? 1 + rnd.nextInt(99) : 100 + rnd.nextInt(1900)).append('\n');
+				return true;
+			default:
+				throw new IllegalArgumentException("Unknown table " + table);
+		}
+	}
+
+	/**
+	 * The owner of car i. One car in ten belongs to a fleet customer (every
+	 * 100th customer id), the rest are spread uniformly.
+	 */
+	private long ownerOf(long car){
+		SplittableRandom rnd = random(OWNER, car);
+		long fleets = this._customers / 100;
+		if (fleets > 0 && rnd.nextInt(10) == 0) return rnd.nextLong(fleets) * 100;
+		return rnd.nextLong(this._customers);
+	}
+
+	//the car of a service request, every 200th car is a hot car and gets a quarter of the requests
+	private long serviceCar(SplittableRandom rnd){
+		long hot = this._cars / 200;
+		if (hot > 0 && rnd.nextInt(4) == 0) return rnd.nextLong(hot) * 200;
+		return rnd.nextLong(this._cars);
+	}
+
+	/**
+	 * A unique 16 character VIN: 6 random letters followed by the car number
+	 * scrambled with a multiplier that is invertible modulo 10^10.
+	 */
+	private String vin(long car){
+		SplittableRandom rnd = random(VIN, car);
+		char[] vin = new char[16];
+		for (int k = 0; k < 6; ++k){
+			vin[k] = (char) ('A' + rnd.nextInt(26));
+		}
+		long digits = Math.floorMod(car * 7919L + 1234567L, 10000000000L);
+		for (int k = 15; k >= 6; --k){
+			vin[k] = (char) ('0' + digits % 10);
+			digits /= 10;
+		}
+		return new String(vin);
+	}
+
+	private LocalDate requestDate(long request){
+		return LocalDate.ofEpochDay(FIRST_DAY + random(REQUEST_DATE, request).nextInt(3650));
+	}
+
+	private static String pick(String[] values, SplittableRandom rnd){
+		return values[rnd.nextInt(values.length)];
+	}
+
+	//the random stream of one row, independent of every other row
+	private SplittableRandom random(int stream, long row){
+		return new SplittableRandom(mix(this._seed ^ mix(((long) stream << 40) ^ row)));
+	}
+
+	//the SplitMix64 finalizer
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static void report(String name, long rows, long start){
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%-20s %12d rows %8.2fs %10.0f rows/s", name, rows, secs, rows / Math.max(secs, 1e-9)));
+	}
+
+	public static void main(String[] args){
+		if (args.length != 2 && args.length != 4){
+			System.err.println("Usage: java [-Dgen.seed=42] [-Dgen.threads=4] [-classpath <classpath>] DataGenerator <scale> <csv dir>");
+			System.err.println("       java [-Dgen.seed=42] [-Dgen.threads=4] [-classpath <classpath>] DataGenerator <scale> <dbname> <port> <user>");
+			return;
+		}
+		MechanicShop esql = null;
+		try{
+			DataGenerator generator = new DataGenerator(Double.parseDouble(args[0]),
+				Long.getLong("gen.seed", 42L), Integer.getInteger("gen.threads", Runtime.getRuntime().availableProcessors()));
+			if (args.length == 2){
+				generator.generateAll(new File(args[1]));
+			}else{
+				Class.forName("org.postgresql.Driver");
+				esql = new MechanicShop(args[1], args[2], args[3], "");
+				generator.generateAll(esql.getPool());
+				IdAllocator.sync(esql);
+				Partitions.ensure(esql);
+			}
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}
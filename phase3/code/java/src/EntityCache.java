@@ -0,0 +1,165 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache for single Customer, Mechanic and Car rows, keyed by
+ * table and primary key. The shop only ever adds these rows, so a row is
+ * served from memory until it is older than the TTL, which bounds how long
+ * a change made by another client can go unnoticed. The least recently used
+ * rows are evicted beyond maxSize.
+ *
+ * Rows written by the Add* operations are put here with the row their
+ * INSERT ... RETURNING produced, so a record that was just created is never
+ * read back. Lookups that find nothing are not cached, since the row may be
+ * added by another client right after.
+ *
+ */
+public class EntityCache{
+	/**
+	 * Reads the row on a cache miss.
+	 */
+	public interface Loader{
+		QueryResult load() throws SQLException;
+	}
+
+	private static class Entry{
+		final QueryResult row;
+		final long loadedAt;
+
+		Entry(QueryResult row, long loadedAt){
+			this.row = row;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final int _maxSize;
+	private final long _ttlMillis;
+	//access ordered, so the eldest entry is the least recently used; guarded by this
+	private final LinkedHashMap<String, Entry> _entries;
+
+	//cache metrics
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _expired = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+	private final AtomicLong _writes = new AtomicLong();
+
+	/**
+	 * @param maxSize the number of rows kept, 0 disables the cache
+	 * @param ttlMillis how long a row may be served from memory
+	 */
+	public EntityCache(int maxSize, long ttlMillis){
+		this._maxSize = maxSize;
+		this._ttlMillis = ttlMillis;
+		this._entries = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, EntityCache.Entry> eldest){
+				if (size() <= EntityCache.this._maxSize) return false;
+				EntityCache.this._evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached row, or reads and caches it. The loader runs
+	 * without holding the cache lock.
+	 *
+	 * @param table the table the row belongs to
+	 * @param key its primary key
+	 * @param loader reads the row on a miss
+	 * @return the row, or an empty result when there is none
+	 * @throws java.sql.SQLException when the row cannot be read
+	 */
+	public QueryResult get(String table, Object key, Loader loader) throws SQLException {
+		String k = key(table, key);
+		long now = System.currentTimeMillis();
+		synchronized (this){
+			Entry entry = this._entries.get(k);
+			if (entry != null){
+				if (now - entry.loadedAt < this._ttlMillis){
+					this._hits.incrementAndGet();
+					return entry.row;
+				}
+				this._entries.remove(k);
+				this._expired.incrementAndGet();
+			}
+		}
+		this._misses.incrementAndGet();
+		QueryResult row = loader.load();
+		if (!row.isEmpty()) store(k, row, now);
+		return row;
+	}
+
+	/**
+	 * Caches a row that was just written, replacing any older copy.
+	 *
+	 * @param table the table the row belongs to
+	 * @param key its primary key
+	 * @param row the written row, as returned by INSERT ... RETURNING
+	 */
+	public void put(String table, Object key, QueryResult row){
+		this._writes.incrementAndGet();
+		if (row.isEmpty()) invalidate(table, key);
+		else store(key(table, key), row, System.currentTimeMillis());
+	}
+
+	/**
+	 * Drops one row, so the next lookup reads it from the database.
+	 *
+	 * @param table the table the row belongs to
+	 * @param key its primary key
+	 */
+	public synchronized void invalidate(String table, Object key){
+		this._entries.remove(key(table, key));
+	}
+
+	/**
+	 * Drops every row, e.g. after rows were deleted behind the cache's back.
+	 */
+	public synchronized void invalidateAll(){
+		this._entries.clear();
+	}
+
+	private synchronized void store(String k, QueryResult row, long loadedAt){
+		if (this._maxSize > 0) this._entries.put(k, new Entry(row, loadedAt));
+	}
+
+	//CHAR keys such as Car.vin come back padded, the padding is not part of the key
+	private static String key(String table, Object key){
+		return table.toLowerCase() + ":" + String.valueOf(key).stripTrailing();
+	}
+
+	/**
+	 * @return the fraction of lookups served from memory, between 0 and 1
+	 */
+	public double getHitRate(){
+		long hits = this._hits.get();
+		long total = hits + this._misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return a one line summary of the size and hit rate
+	 */
+	public synchronized String getStats(){
+		return String.format("entity cache: maxSize=%d ttl=%dms entries=%d hits=%d misses=%d expired=%d evictions=%d writes=%d hitRate=%.1f%%",
+			this._maxSize, this._ttlMillis, this._entries.size(), this._hits.get(), this._misses.get(),
+			this._expired.get(), this._evictions.get(), this._writes.get(), 100 * getHitRate());
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.postgresql.PGConnection;
+
+/**
+ * Follows the shop event feed of sql/events.sql: customer_added, car_added,
+ * request_opened and request_closed, in the order of their positions.
+ *
+ * The subscriber keeps one pooled connection that LISTENs on shop_events,
+ * so it wakes up when a writer commits instead of polling the tables; it
+ * still checks every pollMillis, for events held back by a transaction that
+ * was running when they were notified. Each round relays the settled outbox
+ * rows, reads up to batchSize events past the position and hands them to
+ * the Handler.
+ *
+ * Delivery is at least once: the position is saved in Shop_Event_Offset
+ * under the consumer name only after the handler returned, so a handler
+ * that throws, or a process that stops in between, sees the same events
+ * again. A subscriber started under the same name resumes after the saved
+ * position; seek() moves it, e.g. back to 0 to replay the whole feed.
+ *
+ */
+public class EventSubscriber implements AutoCloseable{
+	static final String RELAY = "SELECT relay_shop_events(?)";
+	static final String EVENTS_AFTER = "SELECT position, event_type, entity_key, payload::text, created_at::text FROM Shop_Event WHERE position > ? ORDER BY position LIMIT ?";
+	static final String LOAD_OFFSET = "SELECT position FROM Shop_Event_Offset WHERE consumer = ?";
+	static final String SAVE_OFFSET = "INSERT INTO Shop_Event_Offset (consumer, position) VALUES (?, ?) ON CONFLICT (consumer) DO UPDATE SET position = EXCLUDED.position, updated_at = now()";
+	//how long to wait before reconnecting or redelivering after a failure
+	private static final long RETRY_MILLIS = 1000;
+
+	/**
+	 * One entry of the feed.
+	 */
+	public static class Event{
+		public final long position;
+		//customer_added, car_added, request_opened or request_closed
+		public final String type;
+		//the id, vin, rid or wid of the row
+		public final String key;
+		//the inserted row as a JSON object
+		public final String payload;
+		public final String createdAt;
+
+		Event(long position, String type, String key, String payload, String createdAt){
+			this.position = position;
+			this.type = type;
+			this.key = key;
+			this.payload = payload;
+			this.createdAt = createdAt;
+		}
+
+		/**
+		 * @return the event as one JSON object
+		 */
+		public String toString(){
+			StringBuilder sb = new StringBuilder(64 + this.payload.length());
+			sb.append("{\"position\":").append(this.position).append(",\"type\":");
+			Json.quote(sb, this.type);
+			sb.append(",\"key\":");
+			Json.quote(sb, this.key);
+			sb.append(",\"createdAt\":");
+			Json.quote(sb, this.createdAt);
+			sb.append(",\"row\":").append(this.payload).append('}');
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Receives the events in position order.
+	 */
+	public interface Handler{
+		/**
+		 * @param events one or more events, in position order
+		 * @throws Exception to have the same events delivered again
+		 */
+		void handle(List<Event> events) throws Exception;
+	}
+
+	private final ConnectionPool _pool;
+	private final String _consumer;
+	private final int _batchSize;
+	private final long _pollMillis;
+	private Thread _worker;
+	private volatile boolean _closed = false;
+	//the last delivered position, -1 until it is loaded
+	private volatile long _position = -1;
+	//set by seek(), saved by the worker before its next read
+	private volatile long _seekTo = -1;
+	private volatile long _delivered = 0;
+
+	/**
+	 * @param pool the pool the subscriber's connection is borrowed from, for as long as it runs
+	 * @param consumer the name the position is saved under
+	 * @param batchSize the most events handed to the handler at once
+	 * @param pollMillis the longest wait for a notification
+	 */
+	public EventSubscriber(ConnectionPool pool, String consumer, int batchSize, long pollMillis){
+		if (consumer == null || consumer.isEmpty() || consumer.length() > 64) throw new IllegalArgumentException("The consumer name must have 1 to 64 characters");
+		if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+		this._pool = pool;
+		this._consumer = consumer;
+		this._batchSize = batchSize;
+		this._pollMillis = Math.max(1, pollMillis);
+	}
+
+	/**
+	 * Starts delivering events to the handler on a background thread.
+	 *
+	 * @param handler receives the events
+	 */
+	public synchronized void start(Handler handler){
+		if (this._worker != null) throw new IllegalStateException("The subscriber is already running");
+		this._worker = new Thread(() -> run(handler), "event-subscriber-" + this._consumer);
+		this._worker.setDaemon(true);
+		this._worker.start();
+	}
+
+	/**
+	 * Moves the saved position, effective with the next batch. Events after
+	 * the position are delivered, so seek(0) replays the whole feed.
+	 *
+	 * @param position the new position
+	 */
+	public void seek(long position){
+		if (position < 0) throw new IllegalArgumentException("The position cannot be negative");
+		this._seekTo = position;
+	}
+
+	private void run(Handler handler){
+		while (!this._closed){
+			PooledConnection conn = null;
+			try{
+				conn = this._pool.borrow();
+				follow(conn, handler);
+			}catch (SQLException e){
+				if (conn != null) conn.markBrokenIf(e);
+				if (!this._closed) System.err.println("Event subscriber " + this._consumer + ": " + e.getMessage());
+			}finally{
+				if (conn != null) unlisten(conn);
+			}
+			if (!this._closed) sleep(RETRY_MILLIS);
+		}
+	}
+
+	//delivers batches on one connection until the subscriber is closed or the connection fails
+	private void follow(PooledConnection conn, Handler handler) throws SQLException {
+		try (Statement stmt = conn.getConnection().createStatement()){
+			stmt.execute("LISTEN shop_events");
+		}
+		PGConnection pg = conn.getConnection().unwrap(PGConnection.class);
+		if (this._position < 0) this._position = loadOffset(conn);
+		while (!this._closed){
+			long seekTo = this._seekTo;
+			if (seekTo >= 0){
+				saveOffset(conn, seekTo);
+				this._position = seekTo;
+				this._seekTo = -1;
+			}
+			relay(conn);
+			List<Event> events = read(conn, this._position);
+			if (events.isEmpty()){
+				// returns early when a writer commits
+				pg.getNotifications((int) Math.min(Integer.MAX_VALUE, this._pollMillis));
+				continue;
+			}
+			try{
+				handler.handle(events);
+			}catch (Exception e){
+				System.err.println("Event subscriber " + this._consumer + " failed at position " + events.get(0).position + ", redelivering: " + e);
+				sleep(RETRY_MILLIS);
+				continue;
+			}
+			long last = events.get(events.size() - 1).position;
+			// a seek() during the handler wins over the position just delivered
+			if (this._seekTo < 0){
+				saveOffset(conn, last);
+				this._position = last;
+			}
+			this._delivered += events.size();
+		}
+	}
+
+	private void relay(PooledConnection conn) throws SQLException {
+		PreparedStatement stmt = conn.prepare(RELAY);
+		try{
+			stmt.setInt(1, this._batchSize);
+			stmt.executeQuery().close();
+		}finally{
+			conn.finish(stmt);
+		}
+	}
+
+	private List<Event> read(PooledConnection conn, long after) throws SQLException {
+		PreparedStatement stmt = conn.prepare(EVENTS_AFTER);
+		try{
+			stmt.setLong(1, after);
+			stmt.setInt(2, this._batchSize);
+			List<Event> events = new ArrayList<Event>();
+			try (ResultSet rs = stmt.executeQuery()){
+				while (rs.next()){
+					events.add(new Event(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5)));
+				}
+			}
+			return events;
+		}finally{
+			conn.finish(stmt);
+		}
+	}
+
+	private long loadOffset(PooledConnection conn) throws SQLException {
+		PreparedStatement stmt = conn.prepare(LOAD_OFFSET);
+		try{
+			stmt.setString(1, this._consumer);
+			try (ResultSet rs = stmt.executeQuery()){
+				return rs.next() ? rs.getLong(1) : 0;
+			}
+		}finally{
+			conn.finish(stmt);
+		}
+	}
+
+	private void saveOffset(PooledConnection conn, long position) throws SQLException {
+		PreparedStatement stmt = conn.prepare(SAVE_OFFSET);
+		try{
+			stmt.setString(1, this._consumer);
+			stmt.setLong(2, position);
+			stmt.executeUpdate();
+		}finally{
+			conn.finish(stmt);
+		}
+	}
+
+	//a connection going back to the pool must not keep receiving notifications
+	private void unlisten(PooledConnection conn){
+		try (Statement stmt = conn.getConnection().createStatement()){
+			stmt.execute("UNLISTEN *");
+		}catch (SQLException e){
+			conn.markBroken();
+		}
+		this._pool.release(conn);
+	}
+
+	private void sleep(long millis){
+		try{
+			Thread.sleep(millis);
+		}catch (InterruptedException e){
+			this._closed = true;
+		}
+	}
+
+	/**
+	 * @return the last position delivered, or -1 before the subscriber connected
+	 */
+	public long getPosition(){
+		return this._position;
+	}
+
+	/**
+	 * @return a one line summary of the consumer and its position
+	 */
+	public String getStats(){
+		return String.format("event subscriber %s: position=%d delivered=%d", this._consumer, this._position, this._delivered);
+	}
+
+	/**
+	 * Stops the background thread after the batch being handled.
+	 */
+	@Override
+	public void close(){
+		this._closed = true;
+		Thread worker;
+		synchronized (this){
+			worker = this._worker;
+		}
+		if (worker == null) return;
+		try{
+			worker.join(this._pollMillis + 5000);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded REST front end for the ShopService, built on the JDK's
+ * com.sun.net.httpserver so it needs nothing beyond the JDBC driver.
+ *
+ *   POST /customers                    addCustomer
+ *   POST /mechanics                    addMechanic
+ *   POST /cars                         addCar
+ *   POST /service-requests             insertServiceRequest
+ *   POST /service-requests/queue       queueServiceRequest
+ *   POST /closed-requests              closeServiceRequest
+ *   GET  /customers?lname=...          findCustomersByLastName
+ *   GET  /customers/search?q=smi&limit=20&offset=0   searchCustomers
+ *   GET  /owns?customer_id=...         listCarsOwnedBy
+ *   GET  /reports/bill-less-than-100   listCustomersWithBillLessThan100
+ *   GET  /reports/more-than-20-cars    listCustomersWithMoreThan20Cars
+ *   GET  /reports/cars-before-1995     listCarsBefore1995With50000Milles
+ *   GET  /reports/most-serviced-cars?k=10   listKCarsWithTheMostServices
+ *   GET  /reports/total-bill?limit=20&offset=40   listCustomersInDescendingOrderOfTheirTotalBill
+ *   GET  /reports/bill-less-than-100/pages?limit=50&cursor=...   pageCustomersWithBillLessThan100
+ *   GET  /reports/more-than-20-cars/pages?limit=50&cursor=...    pageCustomersWithMoreThan20Cars
+ *   GET  /reports/cars-before-1995/pages?limit=50&cursor=...     pageCarsBefore1995With50000Milles
+ *   GET  /reports/most-serviced-cars/pages?limit=50&cursor=...   pageCarsWithTheMostServices
+ *   GET  /reports/total-bill/pages?limit=50&cursor=...           pageCustomersByTotalBill
+ *   GET  /metrics                      the Metrics in the Prometheus text format
+ *
+ * POST bodies are JSON objects with the same argument names as the script
+ * mode, where the keys id, rid and wid may be left out to have them
+ * allocated from the sequences; GET arguments come from the query string. Responses are
+ * {"columns":[...],"rows":[[...]]}, with "next" holding the cursor of the
+ * following page for the /pages routes, or {"error":"..."} with status 400 for
+ * invalid input, 409 for constraint violations and 500 otherwise.
+ *
+ * Every request runs on its own virtual thread when the JVM supports them
+ * (Java 21+), otherwise on a fixed pool of http.threads platform threads.
+ * Either way concurrency against the database is bounded by the connection
+ * pool.
+ *
+ */
+public class HttpApiServer{
+	//"METHOD path" to ShopService operation
+	private static final Map<String, String> ROUTES = new HashMap<String, String>();
+	static{
+		ROUTES.put("POST /customers", "addCustomer");
+		ROUTES.put("POST /mechanics", "addMechanic");
+		ROUTES.put("POST /cars", "addCar");
+		ROUTES.put("POST /service-requests", "insertServiceRequest");
+		ROUTES.put("POST /service-requests/queue", "queueServiceRequest");
+		ROUTES.put("POST /closed-requests", "closeServiceRequest");
+		ROUTES.put("GET /customers", "findCustomersByLastName");
+		ROUTES.put("GET /customers/search", "searchCustomers");
+		ROUTES.put("GET /owns", "listCarsOwnedBy");
+		ROUTES.put("GET /reports/bill-less-than-100", "listCustomersWithBillLessThan100");
+		ROUTES.put("GET /reports/more-than-20-cars", "listCustomersWithMoreThan20Cars");
+		ROUTES.put("GET /reports/cars-before-1995", "listCarsBefore1995With50000Milles");
+		ROUTES.put("GET /reports/most-serviced-cars", "listKCarsWithTheMostServices");
+		ROUTES.put("GET /reports/total-bill", "listCustomersInDescendingOrderOfTheirTotalBill");
+		ROUTES.put("GET /reports/bill-less-than-100/pages", "pageCustomersWithBillLessThan100");
+		ROUTES.put("GET /reports/more-than-20-cars/pages", "pageCustomersWithMoreThan20Cars");
+		ROUTES.put("GET /reports/cars-before-1995/pages", "pageCarsBefore1995With50000Milles");
+		ROUTES.put("GET /reports/most-serviced-cars/pages", "pageCarsWithTheMostServices");
+		ROUTES.put("GET /reports/total-bill/pages", "pageCustomersByTotalBill");
+	}
+
+	private final ShopService _service;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+
+	/**
+	 * @param service the service the requests are dispatched to
+	 * @param port the TCP port to listen on
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public HttpApiServer(ShopService service, int port) throws IOException {
+		this._service = service;
+		this._server = HttpServer.create(new InetSocketAddress(port), 1024);
+		this._executor = newExecutor();
+		this._server.setExecutor(this._executor);
+		this._server.createContext("/", this::handle);
+	}
+
+	//one virtual thread per request when available, a bounded thread pool otherwise
+	private static ExecutorService newExecutor(){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch (ReflectiveOperationException e){
+			return Executors.newFixedThreadPool(Integer.getInteger("http.threads", 64));
+		}
+	}
+
+	public void start(){
+		this._server.start();
+	}
+
+	/**
+	 * Stops accepting requests, waiting up to delaySeconds for the running ones.
+	 *
+	 * @param delaySeconds the grace period
+	 */
+	public void stop(int delaySeconds){
+		this._server.stop(delaySeconds);
+		this._executor.shutdown();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		int status;
+		StringBuilder body = new StringBuilder(4096);
+		try{
+			String path = exchange.getRequestURI().getPath();
+			if (path.length() > 1 && path.endsWith("/")) path = path.substring(0, path.length() - 1);
+			String method = exchange.getRequestMethod();
+			String op = ROUTES.get(method + " " + path);
+			if (method.equals("GET") && path.equals("/metrics")){
+				StringBuilder text = new StringBuilder(8192);
+				this._service.getShop().getMetrics().writePrometheus(text);
+				send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", text);
+				return;
+			}
+			if (op == null){
+				boolean known = ROUTES.containsKey("GET " + path) || ROUTES.containsKey("POST " + path);
+				status = known ? 405 : 404;
+				error(body, known ? "Method not allowed" : "Not found");
+			}else{
+				Map<String, Object> args = parseQuery(exchange.getRequestURI().getRawQuery());
+				if (method.equals("POST")){
+					String text = readBody(exchange.getRequestBody());
+					if (!text.trim().isEmpty()) args.putAll(Json.parseObject(text));
+				}
+				QueryResult result = this._service.invoke(op, args);
+				status = method.equals("POST") ? 201 : 200;
+				body.append('{');
+				Json.result(body, result);
+				body.append('}');
+			}
+		}catch (IllegalArgumentException e){
+			status = 400;
+			error(body, e.getMessage());
+		}catch (SQLException e){
+			// class 23 is an integrity constraint violation such as a duplicate key
+			String state = e.getSQLState();
+			status = state != null && state.startsWith("23") ? 409 : 500;
+			error(body, e.getMessage());
+		}catch (RuntimeException e){
+			status = 500;
+			error(body, String.valueOf(e));
+		}
+
+		send(exchange, status, "application/json; charset=utf-8", body);
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, StringBuilder body) throws IOException {
+		byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+
+	private static void error(StringBuilder body, String message){
+		body.setLength(0);
+		body.append("{\"error\":");
+		Json.quote(body, message);
+		body.append('}');
+	}
+
+	private static Map<String, Object> parseQuery(String query){
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		if (query == null || query.isEmpty()) return args;
+		for (String pair : query.split("&")){
+			int eq = pair.indexOf('=');
+			String name = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			args.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return args;
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int n;
+		while ((n = in.read(chunk)) > 0){
+			buffer.write(chunk, 0, n);
+		}
+		return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Hands out the keys of one table from a database sequence, hi/lo style.
+ * The sequences in sql/sequences.sql advance by BLOCK_SIZE, so every
+ * nextval reserves BLOCK_SIZE consecutive keys for this client; they are
+ * handed out from memory, and only every BLOCK_SIZE-th key costs a round
+ * trip. Keys are unique across any number of clients and threads, but not
+ * gap free: the unused part of a block is lost when the program exits.
+ *
+ */
+public class IdAllocator{
+	//must match INCREMENT BY in sql/sequences.sql
+	static final int BLOCK_SIZE = 50;
+
+	static final String CUSTOMER = "customer_id_seq";
+	static final String MECHANIC = "mechanic_id_seq";
+	static final String SERVICE_REQUEST = "service_request_rid_seq";
+	static final String CLOSED_REQUEST = "closed_request_wid_seq";
+
+	private final MechanicShop _esql;
+	private final String _sequence;
+	//the next key to hand out and the end of the reserved block
+	private long _next = 0;
+	private long _limit = 0;
+
+	/**
+	 * @param esql the database the blocks are reserved in
+	 * @param sequence the sequence name, e.g. IdAllocator.CUSTOMER
+	 */
+	public IdAllocator(MechanicShop esql, String sequence){
+		this._esql = esql;
+		this._sequence = sequence;
+	}
+
+	/**
+	 * Returns an unused key. Threads wait for each other only while a new
+	 * block is being reserved.
+	 *
+	 * @return the key
+	 * @throws java.sql.SQLException when a new block cannot be reserved
+	 */
+	public synchronized int next() throws SQLException {
+		if (this._next >= this._limit){
+			List<List<String>> result = this._esql.executeQueryAndReturnResult("SELECT nextval(?::regclass)", this._sequence);
+			long first = Long.parseLong(result.get(0).get(0));
+			this._next = first;
+			this._limit = first + BLOCK_SIZE;
+		}
+		if (this._next > Integer.MAX_VALUE) throw new SQLException("Sequence " + this._sequence + " is past the range of an INTEGER key", "22003");
+		return (int) this._next++;
+	}
+
+	/**
+	 * Moves every key sequence past the largest key in its table, after
+	 * rows with explicit keys were loaded. Does nothing when
+	 * sql/sequences.sql was not run.
+	 *
+	 * @param esql the database
+	 * @throws java.sql.SQLException when the sequences cannot be moved
+	 */
+	public static void sync(MechanicShop esql) throws SQLException {
+		if (esql.executeQuery("SELECT 1 FROM pg_proc WHERE proname = 'sync_id_sequences'") == 0) return;
+		esql.executeQueryAndReturnResult("SELECT sync_id_sequences()");
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures what the index pack in sql/index.sql buys for each query issued
+ * by ShopService. It drops the pack (sql/drop_index.sql), runs every query
+ * under EXPLAIN (ANALYZE, BUFFERS), creates the pack again, repeats the
+ * measurement and prints the median server execution time before and after
+ * together with the top plan node of each run.
+ *
+ * Usage: java IndexBenchmark <dbname> <port> <user> [sql dir] [runs]
+ *
+ */
+public class IndexBenchmark{
+	//label, SQL and sample parameters of every read query in the workload
+	static final Object[][] WORKLOAD = {
+		{"customers by last name", ShopService.CUSTOMERS_BY_LAST_NAME, new Object[]{"Scarlett"}},
+		{"cars owned by customer", ShopService.CARS_OWNED_BY, new Object[]{1}},
+		{"bill less than 100", ShopService.CUSTOMERS_WITH_BILL_LESS_THAN_100, new Object[0]},
+		{"more than 20 cars", ShopService.CUSTOMERS_WITH_MORE_THAN_20_CARS, new Object[0]},
+		{"cars before 1995", ShopService.CARS_BEFORE_1995_WITH_50000_MILES, new Object[0]},
+		{"10 most serviced cars", ShopService.K_CARS_WITH_THE_MOST_SERVICES, new Object[]{10}},
+		{"top 20 total bills", ShopService.CUSTOMERS_BY_TOTAL_BILL, new Object[]{20, 0}}
+	};
+
+	private static final Pattern EXECUTION_TIME = Pattern.compile("(?:Execution Time|Execution time|Total runtime): ([0-9.]+) ms");
+
+	private final MechanicShop _esql;
+	private final int _runs;
+
+	public IndexBenchmark(MechanicShop esql, int runs){
+		this._esql = esql;
+		this._runs = runs;
+	}
+
+	/**
+	 * Runs every statement of a SQL script, one per ';'. Lines starting
+	 * with -- are ignored.
+	 *
+	 * @param script the SQL file
+	 * @throws java.lang.Exception when the file cannot be read or a statement fails
+	 */
+	public void runScript(File script) throws Exception {
+		StringBuilder sql = new StringBuilder();
+		for (String line : Files.readAllLines(script.toPath(), StandardCharsets.UTF_8)){
+			int comment = line.indexOf("--");
+			if (comment >= 0) line = line.substring(0, comment);
+			sql.append(line).append('\n');
+		}
+		for (String statement : sql.toString().split(";")){
+			if (!statement.trim().isEmpty()) this._esql.executeUpdate(statement.trim());
+		}
+	}
+
+	/**
+	 * Runs a query under EXPLAIN (ANALYZE, BUFFERS) and returns the median
+	 * execution time. The first run only warms the cache and is not counted.
+	 *
+	 * @param sql the query
+	 * @param params the bound parameters
+	 * @param plan receives the plan lines of the last run
+	 * @return the median execution time in milliseconds
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public double measure(String sql, Object[] params, List<String> plan) throws SQLException {
+		double[] times = new double[this._runs];
+		for (int run = -1; run < this._runs; ++run){
+			List<List<String>> rows = this._esql.executeQueryAndReturnResult("EXPLAIN (ANALYZE, BUFFERS) " + sql, params);
+			plan.clear();
+			double time = Double.NaN;
+			for (List<String> row : rows){
+				plan.add(row.get(0));
+				Matcher m = EXECUTION_TIME.matcher(row.get(0));
+				if (m.find()) time = Double.parseDouble(m.group(1));
+			}
+			if (run >= 0) times[run] = time;
+		}
+		Arrays.sort(times);
+		return times[times.length / 2];
+	}
+
+	/**
+	 * Measures the workload without and with the index pack and prints the
+	 * latency delta of every query.
+	 *
+	 * @param sqlDir the directory containing index.sql and drop_index.sql
+	 * @throws java.lang.Exception when a script or query fails
+	 */
+	public void run(File sqlDir) throws Exception {
+		List<String> plan = new ArrayList<String>();
+		double[] before = new double[WORKLOAD.length];
+		String[] beforePlan = new String[WORKLOAD.length];
+		runScript(new File(sqlDir, "drop_index.sql"));
+		for (int i = 0; i < WORKLOAD.length; ++i){
+			before[i] = measure((String) WORKLOAD[i][1], (Object[]) WORKLOAD[i][2], plan);
+			beforePlan[i] = plan.isEmpty() ? "" : plan.get(0).trim();
+		}
+
+		runScript(new File(sqlDir, "index.sql"));
+		System.out.println(String.format("%-24s %12s %12s %9s", "query", "before(ms)", "after(ms)", "delta"));
+		System.out.println("--------------------------------------------------------------");
+		for (int i = 0; i < WORKLOAD.length; ++i){
+			double after = measure((String) WORKLOAD[i][1], (Object[]) WORKLOAD[i][2], plan);
+			double delta = 100.0 * (after - before[i]) / before[i];
+			System.out.println(String.format("%-24s %12.3f %12.3f %8.1f%%", WORKLOAD[i][0], before[i], after, delta));
+			System.out.println("    before: " + beforePlan[i]);
+			System.out.println("    after:  " + (plan.isEmpty() ? "" : plan.get(0).trim()));
+		}
+	}
+
+	public static void main(String[] args){
+		if (args.length < 3 || args.length > 5){
+			System.err.println("Usage: java [-classpath <classpath>] IndexBenchmark <dbname> <port> <user> [sql dir] [runs]");
+			return;
+		}
+		MechanicShop esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			File sqlDir = new File(args.length > 3 ? args[3] : "../sql");
+			int runs = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+			new IndexBenchmark(esql, runs).run(sqlDir);
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}
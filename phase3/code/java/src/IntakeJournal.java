@@ -0,0 +1,414 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind queue for new service requests. append() copies the request
+ * into a memory-mapped journal file and returns, so the caller never waits
+ * for the database; a background thread drains the journal to
+ * Service_Request through a BatchWriter, one transaction per batch of up to
+ * batchSize requests.
+ *
+ * The mapping is forced to disk every syncMillis by a second thread when
+ * something was appended, so one fsync covers every request appended in
+ * that window. A request survives a crash of the process as soon as
+ * append() returns, and a crash of the machine once the next sync ran.
+ *
+ * The file starts with a header holding the offset of the first request
+ * that is not in the database yet, followed by the requests:
+ *
+ *   int length, int crc32, int rid, int customer_id, int date (epoch day),
+ *   int odometer, int vin length, vin, int complain length (-1 for NULL), complain
+ *
+ * with a zero length after the last one. When the journal is opened, every
+ * request after the header's offset whose checksum matches is replayed; a
+ * request torn by a crash ends the scan. The offset is moved and forced
+ * after each committed batch, so a crash between the commit and the force
+ * replays that batch and its rows are rejected as duplicate keys. Once
+ * everything is drained the requests start again at the beginning of the
+ * file, and when the journal fills up the undrained requests are moved
+ * there.
+ *
+ * The rid is allocated before append(), so the clerk is given the final key.
+ * A batch that fails for any reason but the data of its rows, e.g. a lost
+ * connection, a deadlock or a lock timeout, stays in the journal and is
+ * written again. Requests the database rejects for their data or a
+ * constraint cannot be retried; they are appended to file.rejected with the
+ * reason.
+ *
+ */
+public class IntakeJournal implements AutoCloseable{
+	private static final int MAGIC = 0x53524a31;
+	//magic, then the offset of the first undrained request
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_HEADER_SIZE = 8;
+	//how long the drainer waits before retrying when the database cannot be reached
+	private static final long RETRY_MILLIS = 1000;
+
+	/**
+	 * The journal has no room left for a request.
+	 */
+	public static class FullException extends IllegalStateException{
+		private static final long serialVersionUID = 1L;
+
+		FullException(String message){
+			super(message);
+		}
+	}
+
+	//a request read back from the journal
+	private static class Request{
+		final int rid;
+		final int customerId;
+		final Date date;
+		final int odometer;
+		final String vin;
+		final String complain;
+
+		Request(ByteBuffer in){
+			this.rid = in.getInt();
+			this.customerId = in.getInt();
+			this.date = Date.valueOf(LocalDate.ofEpochDay(in.getInt()));
+			this.odometer = in.getInt();
+			this.vin = readString(in);
+			this.complain = readString(in);
+		}
+	}
+
+	private final File _file;
+	private final RandomAccessFile _raf;
+	private final MappedByteBuffer _map;
+	private final ConnectionPool _pool;
+	private final int _batchSize;
+	//called after every batch that wrote rows, e.g. to drop cached reports
+	private final Runnable _onDrained;
+	private final Thread _drainer;
+	private final ScheduledExecutorService _syncer;
+
+	//guarded by this: the end of the last request and the start of the first undrained one
+	private int _writePosition;
+	private int _drainPosition;
+	private boolean _dirty = false;
+	private volatile boolean _closed = false;
+
+	private long _appended = 0;
+	private long _drained = 0;
+	private long _rejected = 0;
+	private long _batches = 0;
+	private long _replayed = 0;
+
+	/**
+	 * Opens or creates the journal and starts draining it, beginning with
+	 * the requests a previous run left behind.
+	 *
+	 * @param file the journal file
+	 * @param capacity the size of the file in bytes, fixed when it is created
+	 * @param pool the pool the batches are written through
+	 * @param batchSize the most requests written in one transaction
+	 * @param syncMillis how often appended requests are forced to disk
+	 * @param onDrained run after every batch that wrote rows
+	 * @throws java.io.IOException when the file cannot be mapped or is not a journal
+	 */
+	public IntakeJournal(File file, int capacity, ConnectionPool pool, int batchSize, long syncMillis, Runnable onDrained) throws IOException {
+		if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+		if (syncMillis < 1) throw new IllegalArgumentException("Sync interval must be positive: " + syncMillis);
+		this._file = file;
+		this._pool = pool;
+		this._batchSize = batchSize;
+		this._onDrained = onDrained;
+		this._raf = new RandomAccessFile(file, "rw");
+		boolean created = this._raf.length() == 0;
+		// an existing journal keeps its size
+		long size = created ? capacity : this._raf.length();
+		if (size < HEADER_SIZE + 1024 || size > Integer.MAX_VALUE){
+			this._raf.close();
+			throw new IOException("Invalid journal size " + size + " for " + file);
+		}
+		this._map = this._raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		if (created){
+			this._map.putInt(0, MAGIC);
+			this._map.putInt(4, HEADER_SIZE);
+			this._map.putInt(HEADER_SIZE, 0);
+			this._map.force();
+		}else if (this._map.getInt(0) != MAGIC){
+			this._raf.close();
+			throw new IOException(file + " is not an intake journal");
+		}
+		this._drainPosition = this._map.getInt(4);
+		if (this._drainPosition < HEADER_SIZE || this._drainPosition > this._map.capacity() - 4){
+			this._raf.close();
+			throw new IOException("Corrupt header in " + file);
+		}
+		this._writePosition = scan(this._drainPosition);
+		// cut off whatever a crash left half written
+		if (this._writePosition + 4 <= this._map.capacity()) this._map.putInt(this._writePosition, 0);
+		if (this._replayed > 0) System.err.println("Replaying " + this._replayed + " service request(s) from " + file);
+
+		this._drainer = new Thread(this::drain, "intake-drainer");
+		this._drainer.setDaemon(true);
+		this._drainer.start();
+		this._syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "intake-sync");
+			t.setDaemon(true);
+			return t;
+		});
+		this._syncer.scheduleAtFixedRate(this::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+	}
+
+	//returns the end of the valid requests starting at position, counting them as replayed
+	private int scan(int position){
+		ByteBuffer in = this._map.duplicate();
+		while (position + RECORD_HEADER_SIZE <= in.capacity()){
+			int length = in.getInt(position);
+			if (length <= 0 || position + RECORD_HEADER_SIZE + length > in.capacity()) break;
+			byte[] payload = new byte[length];
+			in.position(position + RECORD_HEADER_SIZE);
+			in.get(payload);
+			if (checksum(payload) != in.getInt(position + 4)) break;
+			position += RECORD_HEADER_SIZE + length;
+			++this._replayed;
+		}
+		return position;
+	}
+
+	/**
+	 * Journals a new service request for the drainer. Only the memory copy
+	 * is made here; nothing waits for the disk or the database.
+	 *
+	 * @throws IntakeJournal.FullException when the journal has no room, because the database is far behind
+	 */
+	public void append(int rid, int customerId, String vin, Date date, int odometer, String complain){
+		byte[] vinBytes = vin.getBytes(StandardCharsets.UTF_8);
+		byte[] complainBytes = complain == null ? new byte[0] : complain.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(24 + vinBytes.length + complainBytes.length);
+		payload.putInt(rid).putInt(customerId).putInt((int) date.toLocalDate().toEpochDay()).putInt(odometer);
+		payload.putInt(vinBytes.length).put(vinBytes);
+		// -1 stands for a NULL complaint
+		payload.putInt(complain == null ? -1 : complainBytes.length).put(complainBytes);
+		byte[] bytes = payload.array();
+		int crc = checksum(bytes);
+
+		synchronized (this){
+			if (this._closed) throw new IllegalStateException("The intake journal is closed");
+			int position = this._writePosition;
+			int end = position + RECORD_HEADER_SIZE + bytes.length;
+			if (end + 4 > this._map.capacity() && compact()){
+				position = this._writePosition;
+				end = position + RECORD_HEADER_SIZE + bytes.length;
+			}
+			if (end + 4 > this._map.capacity()) throw new FullException("The intake journal " + this._file + " is full");
+			// the terminator and the body go first, so a request is never seen without its body
+			this._map.putInt(end, 0);
+			ByteBuffer out = this._map.duplicate();
+			out.position(position + RECORD_HEADER_SIZE);
+			out.put(bytes);
+			this._map.putInt(position + 4, crc);
+			this._map.putInt(position, bytes.length);
+			this._writePosition = end;
+			this._dirty = true;
+			++this._appended;
+			notifyAll();
+		}
+	}
+
+	//moves the undrained requests to the beginning of the file when they fit in the drained space, so that
+	//the old copy stays intact until the header points at the new one; returns false when there is no room
+	private boolean compact(){
+		int pending = this._writePosition - this._drainPosition;
+		if (this._drainPosition - HEADER_SIZE < pending + 4) return false;
+		ByteBuffer from = this._map.duplicate();
+		from.position(this._drainPosition).limit(this._writePosition);
+		ByteBuffer to = this._map.duplicate();
+		to.position(HEADER_SIZE);
+		to.put(from);
+		this._map.putInt(HEADER_SIZE + pending, 0);
+		this._map.force();
+		this._map.putInt(4, HEADER_SIZE);
+		this._map.force();
+		this._drainPosition = HEADER_SIZE;
+		this._writePosition = HEADER_SIZE + pending;
+		return true;
+	}
+
+	//forces the requests appended since the last sync, one fsync for all of them
+	private void sync(){
+		synchronized (this){
+			if (!this._dirty) return;
+			this._dirty = false;
+		}
+		this._map.force();
+	}
+
+	private void drain(){
+		while (true){
+			List<Request> batch = new ArrayList<Request>();
+			int consumed;
+			synchronized (this){
+				while (this._drainPosition == this._writePosition && !this._closed){
+					try{
+						wait();
+					}catch (InterruptedException e){
+						return;
+					}
+				}
+				if (this._drainPosition == this._writePosition) return;
+				consumed = read(batch);
+			}
+			try{
+				write(batch);
+			}catch (SQLException | RuntimeException e){
+				// nothing was committed, the batch stays in the journal
+				System.err.println("Unable to write the queued service requests, retrying: " + e.getMessage());
+				if (this._closed) return;
+				try{
+					Thread.sleep(RETRY_MILLIS);
+				}catch (InterruptedException ie){
+					return;
+				}
+				continue;
+			}
+			synchronized (this){
+				this._drainPosition += consumed;
+				if (this._drainPosition == this._writePosition){
+					// empty, start over at the beginning of the file
+					this._map.putInt(HEADER_SIZE, 0);
+					this._drainPosition = HEADER_SIZE;
+					this._writePosition = HEADER_SIZE;
+				}
+				this._map.putInt(4, this._drainPosition);
+				this._drained += batch.size();
+				++this._batches;
+			}
+			this._map.force();
+			if (this._onDrained != null) this._onDrained.run();
+		}
+	}
+
+	//copies up to batchSize requests out of the mapping, returning the bytes they take
+	private int read(List<Request> batch){
+		ByteBuffer in = this._map.duplicate();
+		int position = this._drainPosition;
+		while (position < this._writePosition && batch.size() < this._batchSize){
+			int length = in.getInt(position);
+			in.limit(position + RECORD_HEADER_SIZE + length);
+			in.position(position + RECORD_HEADER_SIZE);
+			batch.add(new Request(in));
+			in.limit(in.capacity());
+			position += RECORD_HEADER_SIZE + length;
+		}
+		return position - this._drainPosition;
+	}
+
+	private void write(List<Request> batch) throws SQLException {
+		BatchWriter writer = new BatchWriter(this._pool, batch.size() + 1);
+		for (Request request : batch){
+			writer.addServiceRequest(request.rid, request.customerId, request.vin, request.date, request.odometer, request.complain);
+		}
+		writer.flush();
+		if (writer.getErrors().isEmpty()) return;
+		synchronized (this){
+			this._rejected += writer.getErrors().size();
+		}
+		StringBuilder sb = new StringBuilder();
+		for (BatchWriter.RowError error : writer.getErrors()){
+			sb.append(Instant.now()).append(' ').append(error).append('\n');
+		}
+		try (OutputStream out = new FileOutputStream(this._file.getPath() + ".rejected", true)){
+			out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+		}catch (IOException e){
+			System.err.print("Unable to write " + this._file + ".rejected: " + e.getMessage() + "\n" + sb);
+		}
+	}
+
+	private static String readString(ByteBuffer in){
+		int length = in.getInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int checksum(byte[] bytes){
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * @return the number of requests waiting for the database
+	 */
+	public synchronized long getPendingCount(){
+		return this._replayed + this._appended - this._drained;
+	}
+
+	/**
+	 * @return a one line summary of the appended, drained and rejected requests
+	 */
+	public synchronized String getStats(){
+		return String.format("intake journal: file=%s appended=%d replayed=%d drained=%d rejected=%d batches=%d pending=%d used=%d/%d bytes",
+			this._file, this._appended, this._replayed, this._drained, this._rejected, this._batches,
+			getPendingCount(), this._writePosition - this._drainPosition, this._map.capacity());
+	}
+
+	/**
+	 * Stops taking requests, waits up to timeoutMillis for the drainer to
+	 * write the pending ones and forces the journal. Whatever could not be
+	 * written is replayed when the journal is opened again.
+	 *
+	 * @param timeoutMillis how long to wait for the database
+	 */
+	public void close(long timeoutMillis){
+		synchronized (this){
+			if (this._closed) return;
+			this._closed = true;
+			notifyAll();
+		}
+		try{
+			this._drainer.join(timeoutMillis);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		this._drainer.interrupt();
+		this._syncer.shutdown();
+		this._map.force();
+		try{
+			this._raf.close();
+		}catch (IOException e){
+			// the mapping stays valid until it is collected
+		}
+	}
+
+	@Override
+	public void close(){
+		close(30000);
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer for the command and HTTP front ends, so the
+ * project does not need a JSON library next to the JDBC driver. Objects are
+ * read into LinkedHashMaps, arrays into Lists, numbers into Long or Double.
+ *
+ */
+public class Json{
+	private final String _text;
+	private int _pos = 0;
+
+	private Json(String text){
+		this._text = text;
+	}
+
+	/**
+	 * Parses a JSON object.
+	 *
+	 * @param text the JSON text
+	 * @return the object's members, in document order
+	 * @throws java.lang.IllegalArgumentException when the text is not a JSON object
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String text){
+		Object value = parse(text);
+		if (!(value instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+		return (Map<String, Object>) value;
+	}
+
+	/**
+	 * Parses any JSON value.
+	 *
+	 * @param text the JSON text
+	 * @return a Map, List, String, Long, Double, Boolean or null
+	 * @throws java.lang.IllegalArgumentException when the text is not valid JSON
+	 */
+	public static Object parse(String text){
+		Json parser = new Json(text);
+		Object value = parser.readValue();
+		parser.skipWhitespace();
+		if (parser._pos != text.length()) throw parser.error("Unexpected trailing characters");
+		return value;
+	}
+
+	private Object readValue(){
+		skipWhitespace();
+		if (this._pos >= this._text.length()) throw error("Unexpected end of input");
+		char c = this._text.charAt(this._pos);
+		switch (c){
+			case '{': return readObject();
+			case '[': return readArray();
+			case '"': return readString();
+			case 't': expect("true"); return Boolean.TRUE;
+			case 'f': expect("false"); return Boolean.FALSE;
+			case 'n': expect("null"); return null;
+			default: return readNumber();
+		}
+	}
+
+	private Map<String, Object> readObject(){
+		Map<String, Object> members = new LinkedHashMap<String, Object>();
+		++this._pos;
+		skipWhitespace();
+		if (peek() == '}'){
+			++this._pos;
+			return members;
+		}
+		while (true){
+			skipWhitespace();
+			if (peek() != '"') throw error("Expected a member name");
+			String name = readString();
+			skipWhitespace();
+			if (peek() != ':') throw error("Expected ':'");
+			++this._pos;
+			members.put(name, readValue());
+			skipWhitespace();
+			char c = peek();
+			++this._pos;
+			if (c == '}') return members;
+			if (c != ',') throw error("Expected ',' or '}'");
+		}
+	}
+
+	private List<Object> readArray(){
+		List<Object> values = new ArrayList<Object>();
+		++this._pos;
+		skipWhitespace();
+		if (peek() == ']'){
+			++this._pos;
+			return values;
+		}
+		while (true){
+			values.add(readValue());
+			skipWhitespace();
+			char c = peek();
+			++this._pos;
+			if (c == ']') return values;
+			if (c != ',') throw error("Expected ',' or ']'");
+		}
+	}
+
+	private String readString(){
+		StringBuilder sb = new StringBuilder();
+		++this._pos;
+		while (true){
+			if (this._pos >= this._text.length()) throw error("Unterminated string");
+			char c = this._text.charAt(this._pos++);
+			if (c == '"') return sb.toString();
+			if (c != '\\'){
+				sb.append(c);
+				continue;
+			}
+			if (this._pos >= this._text.length()) throw error("Unterminated string");
+			char e = this._text.charAt(this._pos++);
+			switch (e){
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					if (this._pos + 4 > this._text.length()) throw error("Invalid unicode escape");
+					sb.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+					this._pos += 4;
+					break;
+				default: sb.append(e);
+			}
+		}
+	}
+
+	private Object readNumber(){
+		int start = this._pos;
+		while (this._pos < this._text.length() && "+-0123456789.eE".indexOf(this._text.charAt(this._pos)) >= 0){
+			++this._pos;
+		}
+		String number = this._text.substring(start, this._pos);
+		if (number.isEmpty()) throw error("Unexpected character");
+		try{
+			if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0){
+				return Double.valueOf(number);
+			}
+			return Long.valueOf(number);
+		}catch (NumberFormatException e){
+			throw error("Invalid number " + number);
+		}
+	}
+
+	private void expect(String literal){
+		if (!this._text.startsWith(literal, this._pos)) throw error("Unexpected character");
+		this._pos += literal.length();
+	}
+
+	private char peek(){
+		if (this._pos >= this._text.length()) throw error("Unexpected end of input");
+		return this._text.charAt(this._pos);
+	}
+
+	private void skipWhitespace(){
+		while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos))){
+			++this._pos;
+		}
+	}
+
+	private IllegalArgumentException error(String message){
+		return new IllegalArgumentException(message + " at position " + this._pos);
+	}
+
+	/**
+	 * Appends a JSON string literal, or null.
+	 *
+	 * @param sb the buffer to append to
+	 * @param value the string to quote
+	 * @return the buffer
+	 */
+	public static StringBuilder quote(StringBuilder sb, String value){
+		if (value == null) return sb.append("null");
+		sb.append('"');
+		for (int i = 0; i < value.length(); ++i){
+			char c = value.charAt(i);
+			switch (c){
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+					else sb.append(c);
+			}
+		}
+		return sb.append('"');
+	}
+
+	/**
+	 * Appends a list of strings as a JSON array.
+	 *
+	 * @param sb the buffer to append to
+	 * @param values the strings
+	 * @return the buffer
+	 */
+	public static StringBuilder array(StringBuilder sb, List<String> values){
+		sb.append('[');
+		for (int i = 0; i < values.size(); ++i){
+			if (i > 0) sb.append(',');
+			quote(sb, values.get(i));
+		}
+		return sb.append(']');
+	}
+
+	/**
+	 * Appends a query result as {"columns":[...],"rows":[[...],...]} members
+	 * (without the surrounding braces), followed by "next":"..." for a
+	 * ReportPage.
+	 *
+	 * @param sb the buffer to append to
+	 * @param result the query result
+	 * @return the buffer
+	 */
+	public static StringBuilder result(StringBuilder sb, QueryResult result){
+		sb.append("\"columns\":");
+		array(sb, result.getColumns());
+		sb.append(",\"rows\":[");
+		List<List<String>> rows = result.getRows();
+		for (int i = 0; i < rows.size(); ++i){
+			if (i > 0) sb.append(',');
+			array(sb, rows.get(i));
+		}
+		sb.append(']');
+		// pages carry the cursor of the next page, null on the last one
+		if (result instanceof ReportPage){
+			sb.append(",\"next\":");
+			quote(sb, ((ReportPage) result).getNextCursor());
+		}
+		return sb;
+	}
+}
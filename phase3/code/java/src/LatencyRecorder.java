@@ -0,0 +1,108 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram. Values are kept
+ * in microseconds in log-linear buckets: exact below 32us, then 16 buckets
+ * per power of two, so every percentile is within about 6% of the recorded
+ * value. Recording is a few atomic increments and never allocates, so it can
+ * be called from any number of threads on the hot path.
+ *
+ */
+public class LatencyRecorder{
+	private static final int HALF_BITS = 4;
+	private static final int HALF = 1 << HALF_BITS;
+	private static final int SUB_BUCKETS = 2 * HALF;
+	//2^42 us is about 50 days, longer values land in the last bucket
+	private static final long MAX_MICROS = (1L << 42) - 1;
+	private static final int BUCKETS = index(MAX_MICROS) + 1;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sumMicros = new LongAdder();
+	private final AtomicLong _maxMicros = new AtomicLong();
+
+	/**
+	 * @param nanos the measured duration in nanoseconds
+	 */
+	public void record(long nanos){
+		long micros = Math.min(MAX_MICROS, Math.max(0, nanos / 1000));
+		this._counts.incrementAndGet(index(micros));
+		this._count.increment();
+		this._sumMicros.add(micros);
+		if (micros > this._maxMicros.get()) this._maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	public long getCount(){
+		return this._count.sum();
+	}
+
+	/**
+	 * @return the sum of every recorded value in seconds
+	 */
+	public double getSumSeconds(){
+		return this._sumMicros.sum() / 1e6;
+	}
+
+	public double getMeanMillis(){
+		long count = this._count.sum();
+		return count == 0 ? 0 : this._sumMicros.sum() / 1e3 / count;
+	}
+
+	public double getMaxMillis(){
+		return this._maxMicros.get() / 1e3;
+	}
+
+	/**
+	 * Estimates a percentile from the buckets. The value returned is the
+	 * upper bound of the bucket holding the requested rank, capped at the
+	 * maximum, so it never under-reports.
+	 *
+	 * @param quantile between 0 and 1, e.g. 0.99
+	 * @return the latency in milliseconds, 0 when nothing was recorded
+	 */
+	public double getPercentileMillis(double quantile){
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i){
+			counts[i] = this._counts.get(i);
+			total += counts[i];
+		}
+		if (total == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			seen += counts[i];
+			if (seen >= rank) return Math.min(lowerBound(i + 1) - 1, this._maxMicros.get()) / 1e3;
+		}
+		return getMaxMillis();
+	}
+
+	//the bucket of a value in microseconds
+	static int index(long micros){
+		if (micros < SUB_BUCKETS) return (int) micros;
+		int shift = 63 - Long.numberOfLeadingZeros(micros) - HALF_BITS;
+		return shift * HALF + (int) (micros >>> shift);
+	}
+
+	//the smallest value in microseconds that falls in a bucket
+	static long lowerBound(int index){
+		if (index < SUB_BUCKETS) return index;
+		int shift = index / HALF - 1;
+		return (long) (index - shift * HALF) << shift;
+	}
+}
@@ -12,20 +12,28 @@
  */
 
 
-import java.sql.DriverManager;
+import java.sql.CallableStatement;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Date;
-import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.Properties;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -34,9 +42,27 @@ import java.text.SimpleDateFormat;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by every operation
+	private ConnectionPool _pool = null;
+	//latency and throughput of every operation and JDBC call
+	private final Metrics _metrics = new Metrics();
+	//captures the plans of statements slower than slowlog.thresholdMillis
+	private SlowQueryLog _slowLog = SlowQueryLog.DISABLED;
+	//non-interactive operations shared by the console, script and HTTP front ends
+	private final ShopService _service = new ShopService(this);
+	//number of rows fetched per round trip by streamQuery
+	private int _fetchSize = Integer.getInteger("query.fetchSize", 1000);
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//primary key column of every table exists() may be asked about
+	private static final Map<String, String> PRIMARY_KEYS = new HashMap<String, String>();
+	static{
+		PRIMARY_KEYS.put("Customer", "id");
+		PRIMARY_KEYS.put("Mechanic", "id");
+		PRIMARY_KEYS.put("Car", "vin");
+		PRIMARY_KEYS.put("Owns", "ownership_id");
+		PRIMARY_KEYS.put("Service_Request", "rid");
+		PRIMARY_KEYS.put("Closed_Request", "wid");
+	}
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
@@ -45,8 +71,38 @@ public class MechanicShop{
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			Properties props = new Properties();
+			props.setProperty("user", user);
+			props.setProperty("password", passwd);
+			// lets BatchWriter send each batch as multi-row INSERTs
+			props.setProperty("reWriteBatchedInserts", System.getProperty("jdbc.reWriteBatchedInserts", "true"));
+			// executions before the driver switches to a server-side prepared statement, 0 never switches
+			props.setProperty("prepareThreshold", System.getProperty("jdbc.prepareThreshold", "5"));
+
+			// open the connection pool, sizes can be tuned with -Dpool.min=... etc.
+			this._pool = new ConnectionPool(url, props,
+				Integer.getInteger("pool.min", 1),
+				Integer.getInteger("pool.max", 10),
+				Long.getLong("pool.borrowTimeoutMillis", 30000L),
+				Long.getLong("pool.idleTimeoutMillis", 600000L),
+				Integer.getInteger("pool.statementCacheSize", 64));
+			// slow statements are explained in the background into a rotating log file
+			this._slowLog = new SlowQueryLog(this._pool,
+				Long.getLong("slowlog.thresholdMillis", 500L),
+				new File(System.getProperty("slowlog.file", "slow_queries.log")),
+				Long.getLong("slowlog.maxBytes", 10L << 20),
+				Integer.getInteger("slowlog.files", 5));
+			// writes the metrics in the Prometheus text format every metrics.intervalSeconds
+			String metricsFile = System.getProperty("metrics.file");
+			if (metricsFile != null) this._metrics.startDump(new File(metricsFile), Long.getLong("metrics.intervalSeconds", 60L));
+			// new service requests are journaled and written behind in batches, replaying what the last run left
+			String intakeFile = System.getProperty("intake.journal");
+			if (intakeFile != null) this._service.startIntake(new IntakeJournal(new File(intakeFile),
+				Integer.getInteger("intake.journalBytes", 16 << 20),
+				this._pool,
+				Integer.getInteger("intake.batchSize", 500),
+				Long.getLong("intake.syncMillis", 5L),
+				() -> this._service.getReportCache().invalidate()));
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -59,61 +115,206 @@ public class MechanicShop{
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		Metrics.Sample sample = this._metrics.startJdbc("update");
+		PooledConnection conn = null;
+		PreparedStatement stmt = null;
+		try{
+			conn = this._pool.borrow();
+			// fetches the cached prepared statement and binds the parameters
+			stmt = conn.prepare (sql);
+			bind (stmt, params);
 
-		// close the instruction
-	    stmt.close ();
+			// issues the update instruction
+			int rowCount = stmt.executeUpdate ();
+			sample.executed();
+			sample.rows(rowCount);
+			sample.ok();
+			return rowCount;
+		}catch (SQLException e){
+			if (conn != null) conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			if (conn != null){
+				conn.finish(stmt);
+				this._pool.release(conn);
+			}
+			sample.end();
+			this._slowLog.offer(sample, sql, params);
+		}
 	}//end executeUpdate
 
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out in the -Dprint.format format. Nothing is printed for an
+	 * empty result.
+	 * 
+	 * The query runs once, through a cursor in its own transaction: the
+	 * first fetch and the commit are the only round trips of a result of up
+	 * to fetchSize rows, which is printed whole. A larger result is printed
+	 * as it is fetched, so only fetchSize rows are ever held in memory.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		int fetchSize = this._fetchSize;
+		// without a fetch size the driver reads the whole result at once anyway
+		if (fetchSize <= 0) return printResult (executeQueryAndReturnTable (query, params));
+		ResultPrinter printer = new ResultPrinter (fetchSize);
+		try{
+			int rowCount = cursorQuery (query, printer, false, params);
+			printer.finish ();
+			return rowCount;
+		}finally{
+			printer.close ();
+		}
+	}
+
+	//keeps the first rows of a result, printed whole like printResult, and prints the rows past them as they come
+	private static class ResultPrinter implements RowHandler{
+		private final int _kept;
+		private ResultSetMetaData _rsmd;
+		private List<String> _columns;
+		private final List<List<String>> _rows = new ArrayList<List<String>>();
+		private ResultRenderer _out;
+
+		ResultPrinter(int kept){
+			this._kept = kept;
+		}
+
+		@Override
+		public void start(ResultSetMetaData rsmd) throws SQLException {
+			this._rsmd = rsmd;
+			this._columns = new ArrayList<String>(rsmd.getColumnCount());
+			for (int i = 1; i <= rsmd.getColumnCount(); ++i)
+				this._columns.add(rsmd.getColumnName(i));
+		}
+
+		@Override
+		public void handleRow(ResultSet rs, int rowNumber) throws SQLException {
+			if (this._out == null && rowNumber <= this._kept){
+				List<String> row = new ArrayList<String>(this._columns.size());
+				for (int i = 1; i <= this._columns.size(); ++i)
+					row.add(rs.getString(i));
+				this._rows.add(row);
+				return;
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			if (this._out == null){
+				// more rows than one fetch, the kept ones go out first and the rest follow the cursor
+				this._out = ResultRenderer.toStdout (ResultRenderer.getDefaultFormat ());
+				this._out.start(this._rsmd);
+				for (List<String> row : this._rows)
+					this._out.row(row.toArray(new String[0]));
+				this._rows.clear();
+			}
+			this._out.handleRow(rs, rowNumber);
+		}
+
+		//prints a result that fit in the kept rows, nothing when it is empty
+		void finish(){
+			if (this._out == null && this._columns != null) printResult (new QueryResult (this._columns, this._rows));
+		}
+
+		void close(){
+			if (this._out != null) this._out.close();
+		}
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * hand every row to a callback as it is fetched. The query runs in a
+	 * read-only transaction so the driver uses a cursor and only keeps
+	 * fetchSize rows in memory at a time, no matter how large the result is.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param handler the callback invoked once per row
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int streamQuery (String query, RowHandler handler, Object... params) throws SQLException {
+		return cursorQuery (query, handler, true, params);
+	}
+
+	//streamQuery, in a transaction that is only read-only when asked, since that costs a round trip of its own
+	private int cursorQuery (String query, RowHandler handler, boolean readOnly, Object... params) throws SQLException {
+		Metrics.Sample sample = this._metrics.startJdbc("stream");
+		PooledConnection conn;
+		try{
+			conn = this._pool.borrow();
+		}catch (SQLException e){
+			sample.end();
+			throw e;
+		}
+		Connection physical = conn.getConnection();
+		PreparedStatement stmt = null;
+		try{
+			// cursors are only used by the driver inside a transaction
+			physical.setAutoCommit (false);
+			if (readOnly){
+				// SET SESSION CHARACTERISTICS is a round trip of its own
+				physical.setReadOnly (true);
+				sample.roundTrips(1);
+			}
+			stmt = conn.prepare (query);
+			stmt.setFetchSize (this._fetchSize);
+			bind (stmt, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+			sample.executed();
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			handler.start (rsmd);
+			int rowCount = 0;
+			while (rs.next()){
+				// every fetchSize rows the driver fetches the next batch
+				if (rowCount > 0 && this._fetchSize > 0 && rowCount % this._fetchSize == 0) sample.roundTrips(1);
+				sample.row (rs, numCol);
+				handler.handleRow (rs, ++rowCount);
+			}//end while
+			rs.close ();
+			physical.commit ();
+			sample.roundTrips(1);
+			sample.ok();
+			return rowCount;
+		}catch (SQLException e){
+			conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			conn.finish(stmt);
+			try{
+				// ends the transaction (a no-op after commit) and restores the defaults
+				physical.rollback ();
+				physical.setAutoCommit (true);
+				if (readOnly){
+					physical.setReadOnly (false);
+					sample.roundTrips(1);
+				}
+			}catch (SQLException e){
+				// a connection that cannot be reset must not be reused
+				conn.markBroken();
+			}
+			this._pool.release(conn);
+			sample.end();
+			this._slowLog.offer(sample, query, params);
+		}
+	}
+
+	/**
+	 * @param fetchSize the number of rows streamQuery fetches per round trip
+	 */
+	public void setFetchSize (int fetchSize){
+		this._fetchSize = fetchSize;
 	}
 	
 	/**
@@ -121,61 +322,241 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		Metrics.Sample sample = this._metrics.startJdbc("query");
+		PooledConnection conn = null;
+		PreparedStatement stmt = null;
+		try{
+			conn = this._pool.borrow();
+			stmt = conn.prepare (query);
+			bind (stmt, params);
+			
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (); 
+			sample.executed();
+		 
+			//saves the data returned by the query by column, the records are a view over it
+			List<List<String>> result = readTable (rs, sample).getRows ();
+			sample.ok();
+			return result; 
+		}catch (SQLException e){
+			if (conn != null) conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			if (conn != null){
+				conn.finish(stmt);
+				this._pool.release(conn);
+			}
+			sample.end();
+			this._slowLog.offer(sample, query, params);
+		}
 	}//end executeQueryAndReturnResult
 	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the column names
+	 * together with the records.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result with its column names
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryResult executeQueryAndReturnTable (String query, Object... params) throws SQLException { 
+		Metrics.Sample sample = this._metrics.startJdbc("query");
+		PooledConnection conn = null;
+		PreparedStatement stmt = null;
+		try{
+			conn = this._pool.borrow();
+			stmt = conn.prepare (query);
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery (); 
+			sample.executed();
+			QueryResult result = readTable (rs, sample);
+			sample.ok();
+			return result; 
+		}catch (SQLException e){
+			if (conn != null) conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			if (conn != null){
+				conn.finish(stmt);
+				this._pool.release(conn);
+			}
+			sample.end();
+			this._slowLog.offer(sample, query, params);
+		}
+	}//end executeQueryAndReturnTable
+
+	/**
+	 * Method to call a stored procedure that returns rows through a
+	 * CallableStatement. The call runs in its own transaction, so a
+	 * procedure that validates and writes does both in one round trip.
+	 * 
+	 * @param call the call in JDBC escape syntax, e.g. {call f(?, ?)}
+	 * @param params the values bound to the placeholders, in order
+	 * @return the rows returned by the procedure with their column names
+	 * @throws java.sql.SQLException when the procedure fails
+	 */
+	public QueryResult executeCallAndReturnTable (String call, Object... params) throws SQLException {
+		Metrics.Sample sample = this._metrics.startJdbc("call");
+		PooledConnection conn = null;
+		CallableStatement stmt = null;
+		try{
+			conn = this._pool.borrow();
+			stmt = conn.prepareCall (call);
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+			sample.executed();
+			QueryResult result = readTable (rs, sample);
+			sample.ok();
+			return result;
+		}catch (SQLException e){
+			if (conn != null) conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			if (conn != null){
+				conn.finish(stmt);
+				this._pool.release(conn);
+			}
+			sample.end();
+			this._slowLog.offer(sample, call, params);
+		}
+	}
+
+	/**
+	 * Reads the whole result set with its column names into typed columns
+	 * and closes it.
+	 * 
+	 * @param rs the result set
+	 * @param sample counts the rows and bytes read
+	 * @return the result
+	 * @throws java.sql.SQLException when a row cannot be read
+	 */
+	private static QueryResult readTable (ResultSet rs, Metrics.Sample sample) throws SQLException {
+		return new QueryResult(ColumnarResult.read (rs, sample));
+	}
+	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (String query, Object... params) throws SQLException {
+		Metrics.Sample sample = this._metrics.startJdbc("count");
+		PooledConnection conn = null;
+		PreparedStatement stmt = null;
+		try{
+			conn = this._pool.borrow();
+			stmt = conn.prepare (query);
+			bind (stmt, params);
+			// only the first row is looked at, so don't let the driver pull the rest
+			stmt.setMaxRows (1);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+			sample.executed();
+
+			int rowCount = 0;
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			sample.rows(rowCount);
+			sample.ok();
+			return rowCount;
+		}catch (SQLException e){
+			if (conn != null) conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			if (conn != null){
+				resetMaxRows(stmt);
+				conn.finish(stmt);
+				this._pool.release(conn);
+			}
+			sample.end();
+			this._slowLog.offer(sample, query, params);
+		}
+	}
 
-		int rowCount = 0;
+	/**
+	 * Method to check whether a row with the given primary key exists.
+	 * Issues SELECT 1 ... LIMIT 1 so the server stops at the first match.
+	 * 
+	 * @param table the table name, one of the tables in PRIMARY_KEYS
+	 * @param key the primary key value
+	 * @return true if the row exists
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists (String table, Object key) throws SQLException {
+		String column = PRIMARY_KEYS.get (table);
+		if (column == null) throw new IllegalArgumentException ("Unknown table: " + table);
+		return exists (table, column, key);
+	}
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Method to check whether any row has the given value in a column.
+	 * 
+	 * @param table the table name, one of the tables in PRIMARY_KEYS
+	 * @param column the column compared with the key
+	 * @param key the value to look for
+	 * @return true if a matching row exists
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists (String table, String column, Object key) throws SQLException {
+		// identifiers cannot be bound, so only known tables and plain column names are accepted
+		if (!PRIMARY_KEYS.containsKey (table) || !column.matches ("[A-Za-z_][A-Za-z0-9_]*")){
+			throw new IllegalArgumentException ("Invalid table or column: " + table + "." + column);
+		}
+		String query = "SELECT 1 FROM " + table + " WHERE " + column + " = ? LIMIT 1";
+		Metrics.Sample sample = this._metrics.startJdbc("exists");
+		PooledConnection conn = null;
+		PreparedStatement stmt = null;
+		try{
+			conn = this._pool.borrow();
+			stmt = conn.prepare (query);
+			stmt.setMaxRows (1);
+			bind (stmt, key);
+			ResultSet rs = stmt.executeQuery ();
+			sample.executed();
+			boolean found = rs.next ();
+			rs.close ();
+			sample.rows(found ? 1 : 0);
+			sample.ok();
+			return found;
+		}catch (SQLException e){
+			if (conn != null) conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			if (conn != null){
+				resetMaxRows(stmt);
+				conn.finish(stmt);
+				this._pool.release(conn);
+			}
+			sample.end();
+			this._slowLog.offer(sample, query, key);
+		}
+	}
+	
+	//the statement stays in the connection's cache, where a later query of the same text must get all its rows
+	private static void resetMaxRows(PreparedStatement stmt){
+		if (stmt == null) return;
+		try{
+			stmt.setMaxRows (0);
+		}catch (SQLException e){
+			// ignored, a statement that fails here is closed with its connection
+		}
 	}
 	
 	/**
@@ -186,27 +567,85 @@ public class MechanicShop{
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
 	 * @throws java.sql.SQLException when failed to execute the query
+	 * @deprecated costs a round trip of its own after the insert; new keys
+	 *             come from IdAllocator and inserts return their row
 	 */
-	
+	@Deprecated
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		List<List<String>> result = executeQueryAndReturnResult ("SELECT currval(?::regclass)", sequence);
+		if (result.isEmpty()) return -1;
+		return Integer.parseInt(result.get(0).get(0));
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Binds the parameters to the placeholders of a prepared statement.
+	 * 
+	 * @param stmt the prepared statement
+	 * @param params the values bound to the placeholders, in order
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null) stmt.setNull (i + 1, Types.NULL);
+			else stmt.setObject (i + 1, params[i]);
+		}
+	}
+
+	/**
+	 * @return the service layer running the menu operations
+	 */
+	public ShopService getService(){
+		return this._service;
+	}
+
+	/**
+	 * Method to print a query result to standard out in the same format as
+	 * executeQueryAndPrintResult. Nothing is printed for an empty result.
+	 * 
+	 * @param result the query result
+	 * @return the number of rows printed
+	 */
+	public static int printResult (QueryResult result) {
+		if (result.isEmpty()) return 0;
+		try (ResultRenderer out = ResultRenderer.toStdout (ResultRenderer.getDefaultFormat ())){
+			out.render (result);
+		}
+		return result.getRowCount();
+	}
+
+	/**
+	 * @return the latency and throughput metrics of this instance
+	 */
+	public Metrics getMetrics(){
+		return this._metrics;
+	}
+
+	/**
+	 * @return the connection pool used by this instance
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * @return a summary of the connection pool, statement cache, report cache, slow query log and operation metrics
+	 */
+	public String getStats(){
+		IntakeJournal intake = this._service.getIntake();
+		return (intake != null ? intake.getStats() + "\n" : "") + this._pool.getStats() + "\n" + this._pool.getStatementCacheStats() + "\n" + this._service.getReportCache().getStats() + "\n" + this._service.getEntityCache().getStats() + "\n" + this._slowLog.getStats() + "\n" + this._metrics.getStats();
+	}
+
+	/**
+	 * Method to close every pooled connection.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		// the queued service requests still need the pool
+		this._service.close();
+		this._slowLog.close();
+		this._metrics.close();
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -215,13 +654,22 @@ public class MechanicShop{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		// the optional arguments after <user> come in --name value pairs
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 3; i + 1 < args.length && args[i].startsWith("--"); i += 2){
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		if (args.length < 3 || args.length != 3 + 2 * options.size()) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [--import <csv dir>] [--script <command file>|- [--out <result file>]] [--serve <http port>] [--archive <months kept>] [--follow <consumer>] [--export <select> [--format table|tsv|csv|json] [--out <file>]]");
 			return;
 		}//end if
 		
+		// in script mode stdout carries the results, so send the chatter to stderr
+		PrintStream results = System.out;
+		if (options.containsKey("script") || options.containsKey("export") || options.containsKey("follow")) System.setOut(System.err);
+
 		MechanicShop esql = null;
 		
 		try{
@@ -242,6 +690,91 @@ public class MechanicShop{
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
+			// requests of a month without a partition would pile up in the default one
+			Partitions.ensure(esql);
+
+			// bulk load the CSV files in the given directory instead of showing the menu
+			if (options.containsKey("import")){
+				new BulkLoader(esql.getPool()).loadAll(new File(options.get("import")));
+				// the files carry their own keys
+				IdAllocator.sync(esql);
+				// move the imported history out of the default partitions
+				Partitions.ensure(esql);
+				return;
+			}
+
+			// detach the old months of requests into the archive schema instead of showing the menu
+			if (options.containsKey("archive")){
+				int archived = Partitions.archive(esql, Integer.parseInt(options.get("archive")));
+				System.out.println(archived + " partition(s) archived");
+				return;
+			}
+
+			// run the JSON commands from a file or stdin instead of showing the menu
+			if (options.containsKey("script")){
+				String script = options.get("script");
+				BufferedReader input = script.equals("-") ? in : new BufferedReader(new FileReader(script));
+				Writer output = options.containsKey("out")
+					? new BufferedWriter(new FileWriter(options.get("out")), 1 << 16)
+					: new BufferedWriter(new OutputStreamWriter(results), 1 << 16);
+				try{
+					new ScriptRunner(esql.getService()).run(input, output);
+				}finally{
+					output.close();
+					if (input != in) input.close();
+				}
+				return;
+			}
+
+			// stream the rows of one query to a file or stdout instead of showing the menu
+			if (options.containsKey("export")){
+				ResultRenderer.Format format = options.containsKey("format") ? ResultRenderer.Format.parse(options.get("format")) : ResultRenderer.getDefaultFormat();
+				try (ResultRenderer out = options.containsKey("out")
+					? ResultRenderer.toFile(format, new File(options.get("out")))
+					: ResultRenderer.toStdout(format)){
+					int rows = esql.streamQuery(options.get("export"), out);
+					System.err.println(rows + " row(s) exported");
+				}
+				return;
+			}
+
+			// print the shop events as JSON lines as they are committed, until the process is stopped
+			if (options.containsKey("follow")){
+				final EventSubscriber subscriber = new EventSubscriber(esql.getPool(), options.get("follow"),
+					Integer.getInteger("events.batchSize", 500), Long.getLong("events.pollMillis", 1000L));
+				final Writer output = new BufferedWriter(new OutputStreamWriter(results), 1 << 16);
+				final CountDownLatch stopped = new CountDownLatch(1);
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					subscriber.close();
+					stopped.countDown();
+				}));
+				subscriber.start(events -> {
+					for (EventSubscriber.Event event : events){
+						output.write(event.toString());
+						output.write('\n');
+					}
+					// the position is saved once the batch is out
+					output.flush();
+				});
+				stopped.await();
+				System.err.println(subscriber.getStats());
+				return;
+			}
+
+			// serve the operations over HTTP until the process is stopped
+			if (options.containsKey("serve")){
+				final HttpApiServer server = new HttpApiServer(esql.getService(), Integer.parseInt(options.get("serve")));
+				final CountDownLatch stopped = new CountDownLatch(1);
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					server.stop(2);
+					stopped.countDown();
+				}));
+				server.start();
+				Partitions.startDaily(esql);
+				System.out.println("Serving HTTP on port " + options.get("serve") + ", press Ctrl-C to stop");
+				stopped.await();
+				return;
+			}
 			
 			boolean keepon = true;
 			while(keepon){
@@ -281,6 +814,7 @@ public class MechanicShop{
 		}finally{
 			try{
 				if(esql != null) {
+					System.out.println(esql.getStats());
 					System.out.print("Disconnecting from database...");
 					esql.cleanup ();
 					System.out.println("Done\n\nBye !");
@@ -307,7 +841,12 @@ public class MechanicShop{
 		return input;
 	}//end readChoice
 	
-	public static void AddCustomer(MechanicShop esql){//1
+	/**
+	 * Prompts for a new customer and adds it under a key from customer_id_seq.
+	 *
+	 * @return the new customer's ID, or -1 when the insert failed
+	 */
+	public static int AddCustomer(MechanicShop esql){//1
 	
 	 String first_name;
 
@@ -343,28 +882,6 @@ public class MechanicShop{
                 }
         }while (true);
 
-        String ID;
-
-        do {
-		
-                System.out.print("Enter Customer ID: ");
-                try {
-                        ID = in.readLine();
-			// Check if ID is already in the database
-                        String query = "SELECT id FROM Customer WHERE id=";
-			query += ID + ";";
-			int customerExists = esql.executeQuery(query); 
-			// If ID exists in the database prompt the user to input a new ID
-			if (customerExists != 0) throw new RuntimeException("Customer ID is in use, please enter a new ID.");
-			//Check if user input matches the constraints of the database
-			if(ID.length() <= 0) throw new RuntimeException("Customer ID cannot be null");
-                        break; // Break out of the loop if user input is correct
-                }catch (Exception e) {
-                        System.out.println(e);
-                        continue;
-                }
-        }while (true);
-
         String phone_num;
 
         do {
@@ -400,19 +917,17 @@ public class MechanicShop{
         }while (true);
 
         try {
-		//Insert user inputs into the Customer table
-                String query = "INSERT INTO Customer (id, fname, lname, phone, address) VALUES (" + ID + ", \'" + first_name + "\', \'" + last_name + "\',  \'" + phone_num  + "\',  \'" + address + "\' );";
-
-                        esql.executeUpdate(query);
+		//Insert user inputs into the Customer table, the ID is assigned by the database
+                QueryResult added = esql.getService().addCustomer(first_name, last_name, phone_num, address);
 		// Display the new information added to the table
 		System.out.println("------------------------------------------------");
 				System.out.println("New Customer added.");
-				query = "SELECT id AS Customer_ID, fname AS First_Name, lname AS Last_Name, phone AS Phone_Number, address FROM Customer WHERE id='";
-				query+= ID + "';";
-				esql.executeQueryAndPrintResult(query);
+				printResult(added);
 				System.out.println("------------------------------------------------");
+		return Integer.parseInt(added.getRows().get(0).get(0));
         }catch (Exception e) {
                 System.err.println (e.getMessage());
+                return -1;
         }
 
 
@@ -421,28 +936,6 @@ public class MechanicShop{
 
         public static void AddMechanic(MechanicShop esql){//2
 
-        String ID;
-
-        do {
-                System.out.print("Enter Employee ID: ");
-                try {
-                        ID = in.readLine();
-			// Check if ID is already in the database
-                        String query = "SELECT id FROM Mechanic WHERE id=";
-			query += ID + ";";
-			int customerExists = esql.executeQuery(query); 
-			// If it exists then prompt the user to enter a new ID
-			if (customerExists != 0) throw new RuntimeException("Employee ID is in use, please enter a new ID.");
-			//Check if user input matches the constraints of the database
-                        if(ID.length() <= 0) throw new RuntimeException("Employee ID cannot be null");
-                        break; // Break out of the looop if user input is correct
-                }catch (Exception e) {
-                        System.out.println(e);
-                        continue;
-                }
-        }while (true);
-
-
         String first_name;
 
         do {
@@ -494,16 +987,12 @@ public class MechanicShop{
 
         try {
 		// Insert user inputs into the Mechanic table
-                String query = "INSERT INTO Mechanic (id, fname, lname, experience) VALUES (" + ID + ", \'" + first_name + "\', \'" + last_name + "\',  " + exp  + " );";
-
-                        esql.executeUpdate(query);
+                QueryResult added = esql.getService().addMechanic(first_name, last_name, exp);
 		// Display the new information added to the table
 		
 		System.out.println("------------------------------------------------");
 				System.out.println("New Mechanic added.");
-				query = "SELECT id AS employee_id, fname AS First_Name, lname AS Last_Name, experience FROM Mechanic WHERE id='";
-				query+= ID + "';";
-				esql.executeQueryAndPrintResult(query);
+				printResult(added);
 				System.out.println("------------------------------------------------");
         }catch (Exception e) {
                 System.err.println (e.getMessage());
@@ -580,15 +1069,12 @@ public class MechanicShop{
 
                 try{
 			// Inser user inputs into the Car table
-                        String query = "INSERT INTO Car(vin, make, model, year) VALUES(\'" + in1 + "\',\'" + in2 + "\',\'" + in3 + "\'," + in4 +")";
-                        esql.executeUpdate(query);
+                        QueryResult added = esql.getService().addCar(in1, in2, in3, in4);
 			
                		// Display new information added to the database
 			System.out.println("------------------------------------------------");
                                 System.out.println("New Car added.");
-                            query = "SELECT * FROM Car WHERE vin='";
-                                query+= in1 + "';";
-			esql.executeQueryAndPrintResult(query);
+			printResult(added);
                                 System.out.println("------------------------------------------------");
 			
 		}	catch(Exception e) {
@@ -603,18 +1089,12 @@ public class MechanicShop{
 	public static void InsertServiceRequest(MechanicShop esql){//4
        		try{
         		
-			// todaysdate will be the current date when the user creates a service request
-   			Date date = new Date();
-			SimpleDateFormat DateFor = new SimpleDateFormat("MM/dd/yyyy");
-			String todaysdate = DateFor.format(date);
 			String cust_ID = "", car_ID = "";
-			System.out.print("Enter the last name of the customer: ");
+			System.out.print("Enter part of the customer's name or phone number: ");
                         String lastName = in.readLine();
-			// Search for the last name in Customer table and display matching results
-			String query = "SELECT * FROM Customer WHERE lname='";
-			query += lastName + "';";
-			esql.executeQueryAndPrintResult(query);
-			int customerExists = esql.executeQuery(query); 
+			// Search the names and phone numbers in the Customer table and display the best matches
+			// the printed row count doubles as the existence check
+			int customerExists = printResult(esql.getService().searchCustomers(lastName, 20, 0));
 			// If there are matching customers in the database prompt the user to select an existing customer from the
 			// results or create a new customer 
 			if (customerExists != 0){
@@ -628,11 +1108,10 @@ public class MechanicShop{
                         			cust_ID = in.readLine();
 						break;
 						case "2":
-						// To create a new customer call the add customer function
-						AddCustomer(esql);
-						// Prompt the user to reenter the customer ID to update the cust_ID variable in this function
-						System.out.println("Reenter the customer ID: ");
-						cust_ID = in.readLine();
+						// To create a new customer call the add customer function, which returns the new ID
+						int newID = AddCustomer(esql);
+						if (newID < 0) return;
+						cust_ID = String.valueOf(newID);
 						break;
 						default :
 						System.out.println("Invalid input");
@@ -641,20 +1120,20 @@ public class MechanicShop{
 			}
 			else{ 
 				// Since there are no results matching that last name prompt the user to add a new customer
-				System.out.println("There are no customers with that last name. Please add a new customer.");
-				AddCustomer(esql);
-				// Prompt the user to reenter the customer ID to update the cust_ID variable in this function
-				System.out.println("Reenter the customer ID: ");
-				cust_ID = in.readLine();
+				System.out.println("There are no customers matching that search. Please add a new customer.");
+				int newID = AddCustomer(esql);
+				if (newID < 0) return;
+				cust_ID = String.valueOf(newID);
 			}	
 			
+			// The customer is read through the entity cache, a customer that was just added costs no round trip
+			if (esql.getService().getCustomer(Integer.parseInt(cust_ID)).isEmpty()){
+				System.out.println("Customer does not exist");
+				return;
+			}
+
 			// Check if the customer owns any cars from the Owns table
-			query = "SELECT * FROM Owns WHERE customer_id='";
-			query += cust_ID + "';";
-				
-			esql.executeQueryAndPrintResult(query);
-		
-			int carExists = esql.executeQuery(query); 
+			int carExists = printResult(esql.getService().listCarsOwnedBy(Integer.parseInt(cust_ID)));
 			
 			// If customer owns any number of cars, then prompt the user to select a VIN from the matching results
 			if (carExists !=0){
@@ -674,27 +1153,19 @@ public class MechanicShop{
 			
 			
 				
-				// Insert user inputs into the Service_Request table
-				query = "INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES ('";
-				System.out.println("Enter the Service Request ID: ");
-				int rid = Integer.parseInt(in.readLine());
-				query += rid + "', '";
-				query += cust_ID + "', '" + car_ID + "','" + todaysdate + "', '";
+				// Insert user inputs into the Service_Request table, the rid is assigned by the database
 				System.out.println("Enter the odometer reading: ");
-				String odometer = in.readLine();
-				query += odometer + "', '";
+				int odometer = Integer.parseInt(in.readLine());
 				System.out.println("What is the issue? ");
 				String complain = in.readLine();
-				query += complain + "');";
 						
-				esql.executeUpdate(query);
+				// Written behind in the background when -Dintake.journal is set, right away otherwise
+				QueryResult added = esql.getService().queueServiceRequest(Integer.parseInt(cust_ID), car_ID, odometer, complain);
 				
 				// Display the new information added to the database
 				System.out.println("------------------------------------------------");
-				System.out.println("New service request created.");
-				query = "SELECT * FROM Service_Request WHERE rid='";
-				query+= rid + "';";
-				esql.executeQueryAndPrintResult(query);
+				System.out.println(esql.getService().getIntake() != null ? "New service request queued." : "New service request created.");
+				printResult(added);
 				System.out.println("------------------------------------------------");
 	
 		
@@ -707,24 +1178,16 @@ public class MechanicShop{
 	public static void CloseServiceRequest(MechanicShop esql) throws Exception{//5
 		try{
                      
-			String wid,rid, mid, comments, query;
+			String rid, mid, comments;
 	
-			// closing date is the current date when the user closes a service request
-   			Date date = new Date();
-                        SimpleDateFormat DateFor = new SimpleDateFormat("MM/dd/yyyy");
-                        String closingdate = DateFor.format(date);
 			int bill;
 			do {
                 		System.out.print("Enter the service request ID: ");
                			 try {
                       		 	rid = in.readLine();
-					// Check if the rid entered by the user exists in the database
-					query = "SELECT * FROM Service_Request WHERE rid = " + rid + ";";
-					int rid_exists = esql.executeQuery(query);
-					// If the rid doesn't exist then inform the user that the rid is invalid
-					if(rid_exists == 0) {
-						throw new RuntimeException("Service Request does not exist");
-					}break;
+					// the request itself is checked by close_service_request when it is closed
+					Integer.parseInt(rid);
+					break;
        
              	   		}catch (Exception e) {
                    	     		System.out.println (e);
@@ -736,13 +1199,9 @@ public class MechanicShop{
                 		System.out.print("Enter the Employee's ID: ");
               		  	try {
                         		mid = in.readLine();
-					// Check if the mid entered by the user exists in the database
-                       			query = "SELECT * FROM Mechanic WHERE id = " + mid + ";";
-					int mid_exists = esql.executeQuery(query);
-					// If the mid doesn't exist then inform the user that the mid is invalid
-					if(mid_exists == 0) {
-						throw new RuntimeException("Mechanic does not exist");
-					}break;
+					// the mechanic is checked by close_service_request as well
+					Integer.parseInt(mid);
+					break;
 
 				}catch (Exception e) {
                         		System.out.println(e);
@@ -751,21 +1210,16 @@ public class MechanicShop{
         		}while (true);
 		
 		
-			System.out.println("Enter the Close request ID: ");
-			wid = in.readLine();
 			System.out.println("Any comments?");
 			comments = in.readLine();
 			System.out.println("What's the total amount due? ");
 			bill = Integer.parseInt(in.readLine());
-			// Insert user inputs into the Closed_Request table
-			query = "INSERT INTO Closed_Request(wid, rid, mid, date, comment, bill) VALUES (" + wid + ", " + rid + "," + mid + ", '" + closingdate + "' , '" + comments +"', " + bill + ");" ;
-			esql.executeUpdate(query);
+			// Insert user inputs into the Closed_Request table, the wid is assigned by the database
+			QueryResult closed = esql.getService().closeServiceRequest(Integer.parseInt(rid), Integer.parseInt(mid), comments, bill);
 			// Display the new information added to the database
 			System.out.println("------------------------------------------------");
 			System.out.println("Service request closed.");
-			query = "SELECT wid AS close_request_id, rid AS service_request_id, mid as employee_id, date AS closing_date, comment as comments, bill FROM Closed_Request WHERE wid='";
-			query+= wid + "';";
-			esql.executeQueryAndPrintResult(query);
+			printResult(closed);
 			System.out.println("------------------------------------------------");
 
 		}catch(Exception e){
@@ -776,15 +1230,42 @@ public class MechanicShop{
 		      
 	}
 	
+	//the number of report rows shown before asking whether to go on
+	private static final int PAGE_SIZE = Integer.getInteger("console.pageSize", 50);
+
+	//reads one report page from the service
+	private interface PageReader{
+		ReportPage read(int limit, String cursor) throws SQLException;
+	}
+
+	/**
+	 * Prints a report one keyset page at a time, asking before each page
+	 * after the first.
+	 * 
+	 * @param reader reads a page
+	 * @param max the number of rows to show at most
+	 * @return the number of rows printed
+	 * @throws java.lang.Exception when a page cannot be read
+	 */
+	private static int printPages(PageReader reader, int max) throws Exception {
+		int total = 0;
+		String cursor = null;
+		while (true){
+			ReportPage page = reader.read(Math.min(PAGE_SIZE, max - total), cursor);
+			total += printResult(page);
+			cursor = page.getNextCursor();
+			if (cursor == null || total >= max) return total;
+			System.out.println("-- " + total + " row(s) so far, press Enter for more or q to stop --");
+			String answer = in.readLine();
+			if (answer == null || answer.trim().equalsIgnoreCase("q")) return total;
+		}
+	}
+
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try{
-			// Print the plain for this query execution
-			String query = "EXPLAIN SELECT c.fname AS First_Name, c.lname AS Last_Name, c.id AS Customer_ID, b.bill FROM Customer c, Service_Request a, Closed_Request b WHERE c.id = a.customer_id AND a.rid = b.rid AND b.bill < 100;";
-			esql.executeQueryAndPrintResult(query);
 			// Display customers who have bills less than $100
-			query = "SELECT c.fname AS First_Name, c.lname AS Last_Name, c.id AS Customer_ID, b.bill FROM Customer c, Service_Request a, Closed_Request b WHERE c.id = a.customer_id AND a.rid = b.rid AND b.bill < 100;";
 			System.out.println("------------------------------------------------");
-			int rowCount = esql.executeQueryAndPrintResult(query);
+			int rowCount = printPages(esql.getService()::pageCustomersWithBillLessThan100, Integer.MAX_VALUE);
 			System.out.println("total row(s): " + rowCount);
 			System.out.println("------------------------------------------------");
 		}
@@ -795,14 +1276,10 @@ public class MechanicShop{
 	
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		try{
-			// Print the plain for this query execution
-                        String query = "EXPLAIN SELECT fname, lname FROM Customer WHERE id IN (SELECT customer_id FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20)";
-			esql.executeQueryAndPrintResult(query);
 			// Display customers who own more than 20 cars
-			query = "SELECT fname, lname FROM Customer WHERE id IN (SELECT customer_id FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20)";
 			System.out.println("------------------------------------------------");
                        
-                        esql.executeQueryAndPrintResult(query);
+                        printPages(esql.getService()::pageCustomersWithMoreThan20Cars, Integer.MAX_VALUE);
 			System.out.println("------------------------------------------------");
                 } catch(Exception e) {
                         System.err.println(e.getMessage());
@@ -813,9 +1290,8 @@ public class MechanicShop{
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try{
 			// Display cars before 1995 that have 50000 miles odometer reading
-			String query = "SELECT DISTINCT vin, make AS Make, model AS Model, year AS Year FROM Car a, Service_Request b WHERE year < 1995 and b.car_vin = a.vin and b.odometer < 50000;";
 			System.out.println("------------------------------------------------");
-			int rowCount = esql.executeQueryAndPrintResult(query);
+			int rowCount = printPages(esql.getService()::pageCarsBefore1995With50000Milles, Integer.MAX_VALUE);
 			System.out.println("total row(s): " + rowCount);
 			System.out.println("------------------------------------------------");
 		}
@@ -828,12 +1304,11 @@ public class MechanicShop{
 		//
 		try{
 			// Display the first K cars with the most service requests. K is an integer that the user inputs.
-			String query = "SELECT make, model, a.number_of_requests FROM Car c, (SELECT car_vin, COUNT(rid) AS number_of_requests FROM Service_Request GROUP BY car_vin ) AS a WHERE a.car_vin = c.vin ORDER BY a.number_of_requests DESC LIMIT "	;
 			System.out.println("Enter the number of cars you want to view: ");
-			String num = in.readLine();
-			query += num + ";";
+			int num = Integer.parseInt(in.readLine());
+			if (num <= 0) throw new IllegalArgumentException("The number of cars must be positive");
 			System.out.println("------------------------------------------------");
-			int rowCount = esql.executeQueryAndPrintResult(query);
+			int rowCount = printPages(esql.getService()::pageCarsWithTheMostServices, num);
 			System.out.println("total row(s): " + rowCount);
 			System.out.println("------------------------------------------------");
 		}
@@ -845,13 +1320,9 @@ public class MechanicShop{
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//10
 		//
 		try{
-			// Print the plain for this query execution
-			String query = "EXPLAIN SELECT a.fname AS first_name, a.lname AS last_name, Total_Bill FROM Customer a,(SELECT sr.customer_id, SUM(cr.bill) AS Total_Bill FROM Closed_Request cr, Service_Request sr WHERE cr.rid = sr.rid GROUP BY sr.customer_id) AS b WHERE a.id=b.customer_id ORDER BY b.Total_Bill DESC;";
-			esql.executeQueryAndPrintResult(query);
 			// Display customers in descending order of their total bill
-			query = "SELECT a.fname AS first_name, a.lname AS last_name, Total_Bill FROM Customer a,(SELECT sr.customer_id, SUM(cr.bill) AS Total_Bill FROM Closed_Request cr, Service_Request sr WHERE cr.rid = sr.rid GROUP BY sr.customer_id) AS b WHERE a.id=b.customer_id ORDER BY b.Total_Bill DESC;";
 			System.out.println("------------------------------------------------");
-			int rowCount = esql.executeQueryAndPrintResult(query);
+			int rowCount = printPages(esql.getService()::pageCustomersByTotalBill, Integer.MAX_VALUE);
 			System.out.println("total row(s): " + rowCount);
 			System.out.println("------------------------------------------------");
 		}
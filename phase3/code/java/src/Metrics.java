@@ -0,0 +1,419 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency and throughput of the shop operations and of the JDBC calls they
+ * make. Two kinds of series are kept:
+ *
+ *   operation  one per ShopService operation (addCustomer, the reports, ...)
+ *   jdbc       one per (operation, JDBC call) pair, e.g. (addCustomer, update)
+ *
+ * A JDBC call made while an operation is running on the same thread is
+ * attributed to it, other calls are attributed to "other". For JDBC calls
+ * the server time is the time spent in execute(), which covers the network
+ * round trip and the server work up to the first batch of rows; the client
+ * time is the whole call including fetching and handling the rows. Rows and
+ * bytes are counted as they come off the wire and round trips are counted
+ * per message exchange with the server.
+ *
+ * Every series is registered as a JMX MXBean under
+ * MechanicShop:type=Operation,op=... or MechanicShop:type=Jdbc,op=...,call=...
+ * and can be written in the Prometheus text format, either on demand or
+ * periodically to a file (-Dmetrics.file=... -Dmetrics.intervalSeconds=...).
+ *
+ */
+public class Metrics{
+	/**
+	 * A timed piece of work.
+	 */
+	public interface Call<T>{
+		T run() throws SQLException;
+	}
+
+	/**
+	 * The JMX view of one series.
+	 */
+	public interface StatsMXBean{
+		String getOperation();
+		String getCall();
+		long getCount();
+		long getErrors();
+		long getRows();
+		long getBytes();
+		long getRoundTrips();
+		double getMeanMillis();
+		double getP50Millis();
+		double getP99Millis();
+		double getMaxMillis();
+		double getServerMeanMillis();
+		double getServerP99Millis();
+	}
+
+	/**
+	 * Counters and latency histograms of one series.
+	 */
+	public static class Stats implements StatsMXBean{
+		private final String _op;
+		private final String _call;
+		final LatencyRecorder client = new LatencyRecorder();
+		final LatencyRecorder server = new LatencyRecorder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder roundTrips = new LongAdder();
+
+		Stats(String op, String call){
+			this._op = op;
+			this._call = call;
+		}
+
+		public String getOperation(){ return this._op; }
+		public String getCall(){ return this._call; }
+		public long getCount(){ return this.client.getCount(); }
+		public long getErrors(){ return this.errors.sum(); }
+		public long getRows(){ return this.rows.sum(); }
+		public long getBytes(){ return this.bytes.sum(); }
+		public long getRoundTrips(){ return this.roundTrips.sum(); }
+		public double getMeanMillis(){ return this.client.getMeanMillis(); }
+		public double getP50Millis(){ return this.client.getPercentileMillis(0.5); }
+		public double getP99Millis(){ return this.client.getPercentileMillis(0.99); }
+		public double getMaxMillis(){ return this.client.getMaxMillis(); }
+		public double getServerMeanMillis(){ return this.server.getMeanMillis(); }
+		public double getServerP99Millis(){ return this.server.getPercentileMillis(0.99); }
+	}
+
+	/**
+	 * One JDBC call being measured. Created by startJdbc() and recorded by
+	 * end(), which belongs in a finally block.
+	 */
+	public static class Sample{
+		private final Stats _stats;
+		private final long _start = System.nanoTime();
+		private long _executed = 0;
+		private long _nanos = 0;
+		private long _rows = 0;
+		private long _bytes = 0;
+		private int _roundTrips = 0;
+		private boolean _ok = false;
+
+		Sample(Stats stats){
+			this._stats = stats;
+		}
+
+		/**
+		 * Marks the end of execute(), which is one round trip.
+		 */
+		public void executed(){
+			this._executed = System.nanoTime();
+			++this._roundTrips;
+		}
+
+		/**
+		 * @param count additional round trips, e.g. a commit or a cursor fetch
+		 */
+		public void roundTrips(int count){
+			this._roundTrips += count;
+		}
+
+		/**
+		 * Counts the current row and its size on the wire.
+		 *
+		 * @param rs the result set positioned on the row
+		 * @param numCol the number of columns
+		 * @throws java.sql.SQLException when a column cannot be read
+		 */
+		public void row(ResultSet rs, int numCol) throws SQLException {
+			++this._rows;
+			for (int i = 1; i <= numCol; ++i){
+				byte[] value = rs.getBytes(i);
+				if (value != null) this._bytes += value.length;
+			}
+		}
+
+		/**
+		 * @param rows rows affected by an update
+		 */
+		public void rows(long rows){
+			this._rows += rows;
+		}
+
+		public void ok(){
+			this._ok = true;
+		}
+
+		public void end(){
+			long now = System.nanoTime();
+			this._nanos = now - this._start;
+			this._stats.client.record(this._nanos);
+			this._stats.server.record((this._executed == 0 ? now : this._executed) - this._start);
+			if (!this._ok) this._stats.errors.increment();
+			this._stats.rows.add(this._rows);
+			this._stats.bytes.add(this._bytes);
+			this._stats.roundTrips.add(this._roundTrips);
+		}
+
+		/**
+		 * @return the client time of the call in nanoseconds, set by end()
+		 */
+		public long getNanos(){
+			return this._nanos;
+		}
+
+		public boolean isOk(){
+			return this._ok;
+		}
+
+		public String getOperation(){
+			return this._stats.getOperation();
+		}
+
+		public String getCall(){
+			return this._stats.getCall();
+		}
+	}
+
+	private static final String OTHER = "other";
+
+	//sorted so that dumps list the series in a stable order
+	private final ConcurrentSkipListMap<String, Stats> _series = new ConcurrentSkipListMap<String, Stats>();
+	private final Map<String, ObjectName> _registered = new ConcurrentHashMap<String, ObjectName>();
+	//the operation running on the current thread
+	private final ThreadLocal<String> _current = new ThreadLocal<String>();
+	private ScheduledExecutorService _dumper = null;
+
+	/**
+	 * Runs an operation, records its latency and rows and attributes the
+	 * JDBC calls it makes to it. Nested operations are attributed to the
+	 * outermost one.
+	 *
+	 * @param op the operation name
+	 * @param call the work
+	 * @return the result of the work
+	 * @throws java.sql.SQLException when the work fails
+	 */
+	public <T> T time(String op, Call<T> call) throws SQLException {
+		String outer = this._current.get();
+		if (outer != null) return call.run();
+		Stats stats = stats(op, null);
+		this._current.set(op);
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			T result = call.run();
+			if (result instanceof QueryResult) stats.rows.add(((QueryResult) result).getRowCount());
+			ok = true;
+			return result;
+		}finally{
+			this._current.remove();
+			stats.client.record(System.nanoTime() - start);
+			if (!ok) stats.errors.increment();
+		}
+	}
+
+	/**
+	 * Starts measuring a JDBC call on behalf of the current operation.
+	 *
+	 * @param call the kind of call, e.g. update or query
+	 * @return the sample to fill in and end()
+	 */
+	public Sample startJdbc(String call){
+		String op = this._current.get();
+		return new Sample(stats(op == null ? OTHER : op, call));
+	}
+
+	private Stats stats(String op, String call){
+		String key = call == null ? op : op + "/" + call;
+		Stats stats = this._series.get(key);
+		if (stats != null) return stats;
+		stats = new Stats(op, call);
+		Stats raced = this._series.putIfAbsent(key, stats);
+		if (raced != null) return raced;
+		register(key, stats);
+		return stats;
+	}
+
+	//JMX is a convenience, a name clash with another instance in the same JVM is ignored
+	private void register(String key, Stats stats){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(stats.getCall() == null
+				? "MechanicShop:type=Operation,op=" + ObjectName.quote(stats.getOperation())
+				: "MechanicShop:type=Jdbc,op=" + ObjectName.quote(stats.getOperation()) + ",call=" + ObjectName.quote(stats.getCall()));
+			if (!server.isRegistered(name)){
+				server.registerMBean(stats, name);
+				this._registered.put(key, name);
+			}
+		}catch (JMException e){
+			// no JMX view for this series.
+		}
+	}
+
+	/**
+	 * Writes every series in the Prometheus text exposition format.
+	 *
+	 * @param out receives the text
+	 */
+	public void writePrometheus(StringBuilder out){
+		List<Stats> ops = new ArrayList<Stats>();
+		List<Stats> jdbc = new ArrayList<Stats>();
+		for (Stats stats : this._series.values()){
+			(stats.getCall() == null ? ops : jdbc).add(stats);
+		}
+		summary(out, "shop_operation_seconds", "Client latency of the shop operations", ops, false);
+		counter(out, "shop_operation_errors_total", "Failed shop operations", ops, 0);
+		counter(out, "shop_operation_rows_total", "Rows returned by the shop operations", ops, 1);
+		summary(out, "shop_jdbc_seconds", "Client time of the JDBC calls, including fetching the rows", jdbc, false);
+		summary(out, "shop_jdbc_server_seconds", "Time spent in execute() by the JDBC calls", jdbc, true);
+		counter(out, "shop_jdbc_errors_total", "Failed JDBC calls", jdbc, 0);
+		counter(out, "shop_jdbc_rows_total", "Rows fetched or affected by the JDBC calls", jdbc, 1);
+		counter(out, "shop_jdbc_bytes_total", "Bytes of row data fetched by the JDBC calls", jdbc, 2);
+		counter(out, "shop_jdbc_round_trips_total", "Round trips to the database server", jdbc, 3);
+	}
+
+	private static void summary(StringBuilder out, String name, String help, List<Stats> series, boolean server){
+		if (series.isEmpty()) return;
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" summary\n");
+		for (Stats stats : series){
+			LatencyRecorder recorder = server ? stats.server : stats.client;
+			for (double q : new double[]{0.5, 0.9, 0.99}){
+				out.append(name);
+				labels(out, stats, "quantile=\"" + q + "\"");
+				out.append(' ').append(recorder.getPercentileMillis(q) / 1e3).append('\n');
+			}
+			out.append(name).append("_sum");
+			labels(out, stats, null);
+			out.append(' ').append(recorder.getSumSeconds()).append('\n');
+			out.append(name).append("_count");
+			labels(out, stats, null);
+			out.append(' ').append(recorder.getCount()).append('\n');
+		}
+	}
+
+	private static void counter(StringBuilder out, String name, String help, List<Stats> series, int which){
+		if (series.isEmpty()) return;
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" counter\n");
+		for (Stats stats : series){
+			long value = which == 0 ? stats.getErrors() : which == 1 ? stats.getRows() : which == 2 ? stats.getBytes() : stats.getRoundTrips();
+			out.append(name);
+			labels(out, stats, null);
+			out.append(' ').append(value).append('\n');
+		}
+	}
+
+	private static void labels(StringBuilder out, Stats stats, String extra){
+		out.append("{op=\"").append(stats.getOperation()).append('"');
+		if (stats.getCall() != null) out.append(",call=\"").append(stats.getCall()).append('"');
+		if (extra != null) out.append(',').append(extra);
+		out.append('}');
+	}
+
+	/**
+	 * @return one line per series with the count, errors and latency percentiles
+	 */
+	public String getStats(){
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-48s %8s %6s %9s %9s %9s %9s %9s %8s", "operation", "count", "errors", "p50(ms)", "p99(ms)", "max(ms)", "srv99(ms)", "rows", "trips"));
+		for (Map.Entry<String, Stats> entry : this._series.entrySet()){
+			Stats stats = entry.getValue();
+			sb.append('\n').append(String.format("%-48s %8d %6d %9.3f %9.3f %9.3f %9.3f %9d %8d", entry.getKey(),
+				stats.getCount(), stats.getErrors(), stats.getP50Millis(), stats.getP99Millis(), stats.getMaxMillis(),
+				stats.getCall() == null ? 0 : stats.getServerP99Millis(), stats.getRows(), stats.getRoundTrips()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Rewrites the file with the Prometheus text every intervalSeconds. The
+	 * file is replaced atomically so a scraper never reads half of it.
+	 *
+	 * @param file the output file
+	 * @param intervalSeconds the dump interval
+	 */
+	public synchronized void startDump(File file, long intervalSeconds){
+		if (this._dumper != null) return;
+		this._dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "metrics-dump");
+			t.setDaemon(true);
+			return t;
+		});
+		this._dumper.scheduleAtFixedRate(() -> {
+			try{
+				dump(file);
+			}catch (IOException e){
+				System.err.println("Unable to write " + file + ": " + e.getMessage());
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Writes the Prometheus text to a file.
+	 *
+	 * @param file the output file
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public void dump(File file) throws IOException {
+		StringBuilder sb = new StringBuilder(8192);
+		writePrometheus(sb);
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		try{
+			Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}finally{
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	/**
+	 * Stops the periodic dump and removes the JMX beans.
+	 */
+	public synchronized void close(){
+		if (this._dumper != null){
+			this._dumper.shutdownNow();
+			this._dumper = null;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : this._registered.values()){
+			try{
+				server.unregisterMBean(name);
+			}catch (JMException e){
+				// already gone.
+			}
+		}
+		this._registered.clear();
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side of the monthly partitions of Service_Request and
+ * Closed_Request (sql/partition.sql). ensure() creates the partitions of the
+ * coming months before rows arrive for them and moves rows that fell into a
+ * default partition, e.g. after an import of old requests, into their month.
+ * Every method does nothing when sql/partition.sql was not run.
+ *
+ */
+public class Partitions{
+	//how many months past the current one always have a partition
+	static final int MONTHS_AHEAD = Integer.getInteger("partitions.monthsAhead", 3);
+
+	private Partitions(){
+	}
+
+	/**
+	 * Creates the missing monthly partitions.
+	 *
+	 * @param esql the database
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when a partition cannot be created
+	 */
+	public static int ensure(MechanicShop esql) throws SQLException {
+		if (!installed(esql)) return 0;
+		return Integer.parseInt(esql.executeQueryAndReturnResult("SELECT ensure_partitions(?)", MONTHS_AHEAD).get(0).get(0));
+	}
+
+	/**
+	 * Detaches the months before the last keepMonths ones into the archive
+	 * schema, where reports no longer read them.
+	 *
+	 * @param esql the database
+	 * @param keepMonths the number of months kept, the current one included
+	 * @return the number of partitions archived
+	 * @throws java.sql.SQLException when a partition cannot be detached
+	 */
+	public static int archive(MechanicShop esql, int keepMonths) throws SQLException {
+		if (keepMonths < 1) throw new IllegalArgumentException("At least the current month must be kept");
+		if (!installed(esql)) return 0;
+		return Integer.parseInt(esql.executeQueryAndReturnResult("SELECT archive_partitions(?)", keepMonths).get(0).get(0));
+	}
+
+	/**
+	 * Runs ensure() once a day on a daemon thread, for processes that run
+	 * across a month boundary such as the HTTP server.
+	 *
+	 * @param esql the database
+	 * @return the scheduler, to be shut down with the process
+	 */
+	public static ScheduledExecutorService startDaily(MechanicShop esql){
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "partition-maintenance");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleAtFixedRate(() -> {
+			try{
+				ensure(esql);
+			}catch (SQLException e){
+				System.err.println("Unable to create the monthly partitions: " + e.getMessage());
+			}
+		}, 1, 1, TimeUnit.DAYS);
+		return scheduler;
+	}
+
+	private static boolean installed(MechanicShop esql) throws SQLException {
+		return esql.executeQuery("SELECT 1 FROM pg_proc WHERE proname = 'ensure_partitions'") > 0;
+	}
+}
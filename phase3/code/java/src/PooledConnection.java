@@ -0,0 +1,136 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A physical database connection owned by a ConnectionPool. The pool keeps
+ * track of when the connection was created and last handed back so that it
+ * can evict idle connections and skip validation of recently used ones.
+ * Each connection carries its own cache of prepared statements.
+ *
+ */
+public class PooledConnection{
+	//reference to the physical database connection
+	private final Connection _connection;
+	private final StatementCache _statements;
+	private final long _createdAt;
+	private long _lastUsedAt;
+	//set when a statement failed with a connection-level error
+	private boolean _broken = false;
+
+	public PooledConnection(Connection connection, StatementCache statements){
+		this._connection = connection;
+		this._statements = statements;
+		this._createdAt = System.currentTimeMillis();
+		this._lastUsedAt = this._createdAt;
+	}
+
+	/**
+	 * @return the physical connection
+	 */
+	public Connection getConnection(){
+		return this._connection;
+	}
+
+	/**
+	 * Returns a prepared statement for the SQL template from this
+	 * connection's statement cache. Hand it back with finish() once the
+	 * result set has been consumed.
+	 *
+	 * @param sql the SQL template with ? placeholders
+	 * @return a prepared statement with cleared parameters
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		return this._statements.prepare(sql);
+	}
+
+	/**
+	 * Returns a callable statement for a stored procedure call from this
+	 * connection's statement cache. Hand it back with finish().
+	 *
+	 * @param sql the call in JDBC escape syntax with ? placeholders
+	 * @return a callable statement with cleared parameters
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		return this._statements.prepareCall(sql);
+	}
+
+	/**
+	 * Closes the statement unless it is owned by the statement cache.
+	 *
+	 * @param stmt a statement returned by prepare()
+	 */
+	public void finish(PreparedStatement stmt){
+		if (stmt == null || this._statements.isCaching()) return;
+		try{
+			stmt.close();
+		}catch (SQLException e){
+			// ignored.
+		}
+	}
+
+	public long getCreatedAt(){
+		return this._createdAt;
+	}
+
+	public long getLastUsedAt(){
+		return this._lastUsedAt;
+	}
+
+	void touch(){
+		this._lastUsedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Marks the connection as broken if the exception is a connection
+	 * exception (SQLSTATE class 08) so the pool discards it on release
+	 * instead of handing it to the next caller.
+	 *
+	 * @param e the exception raised while using this connection
+	 */
+	public void markBrokenIf(SQLException e){
+		String state = e.getSQLState();
+		if (state == null || state.startsWith("08")){
+			this._broken = true;
+		}
+	}
+
+	/**
+	 * Marks the connection as broken so the pool discards it on release.
+	 */
+	public void markBroken(){
+		this._broken = true;
+	}
+
+	public boolean isBroken(){
+		return this._broken;
+	}
+
+	/**
+	 * Closes the physical connection, ignoring any error.
+	 */
+	void closeQuietly(){
+		this._statements.clear();
+		try{
+			this._connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The column names and rows returned by a query, used by the non-interactive
+ * front ends that need the header as well as the data.
+ *
+ * The data is kept in a ColumnarResult; getRows() is a read-only view that
+ * turns a cell into a String only when it is read. Code that walks large
+ * results should use getColumnar() and its typed accessors instead.
+ *
+ */
+public class QueryResult{
+	private final List<String> _columns;
+	private final ColumnarResult _data;
+
+	public QueryResult(List<String> columns, List<List<String>> rows){
+		this(ColumnarResult.ofStrings(columns, rows));
+	}
+
+	public QueryResult(ColumnarResult data){
+		List<String> columns = new ArrayList<String>(data.getColumnCount());
+		for (int i = 0; i < data.getColumnCount(); ++i)
+			columns.add(data.getColumnName(i));
+		this._columns = Collections.unmodifiableList(columns);
+		this._data = data;
+	}
+
+	public List<String> getColumns(){
+		return this._columns;
+	}
+
+	public ColumnarResult getColumnar(){
+		return this._data;
+	}
+
+	public List<List<String>> getRows(){
+		return new AbstractList<List<String>>(){
+			public List<String> get(final int row){
+				if (row < 0 || row >= size()) throw new IndexOutOfBoundsException("Row " + row + " of " + size());
+				return new AbstractList<String>(){
+					public String get(int column){
+						return QueryResult.this._data.getString(row, column);
+					}
+
+					public int size(){
+						return QueryResult.this._data.getColumnCount();
+					}
+				};
+			}
+
+			public int size(){
+				return QueryResult.this._data.getRowCount();
+			}
+		};
+	}
+
+	public int getRowCount(){
+		return this._data.getRowCount();
+	}
+
+	public boolean isEmpty(){
+		return this._data.getRowCount() == 0;
+	}
+}
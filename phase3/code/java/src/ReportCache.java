@@ -0,0 +1,154 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache for the List* report results. An entry is served until it
+ * is older than the TTL or until invalidate() is called by a write that can
+ * change the reports (a new or closed service request).
+ *
+ * Invalidation bumps a generation counter instead of clearing the map, and a
+ * result is only served if it was computed in the current generation. A
+ * report that was running while a write happened is therefore never served,
+ * even if it finishes after the invalidation.
+ *
+ * Reports with arguments, such as the k most serviced cars, get an entry per
+ * argument value, and the arguments come from clients. The cache therefore
+ * holds at most maxEntries reports and makes room by dropping the one loaded
+ * first.
+ *
+ */
+public class ReportCache{
+	/**
+	 * Computes a report on a cache miss.
+	 */
+	public interface Loader{
+		QueryResult load() throws SQLException;
+	}
+
+	private static class Entry{
+		final QueryResult result;
+		final long generation;
+		final long loadedAt;
+
+		Entry(QueryResult result, long generation, long loadedAt){
+			this.result = result;
+			this.generation = generation;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final long _ttlMillis;
+	private final int _maxEntries;
+	private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong _generation = new AtomicLong();
+
+	//cache metrics
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _expired = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+	private final AtomicLong _invalidations = new AtomicLong();
+	private final AtomicLong _servedAgeMillis = new AtomicLong();
+	private final AtomicLong _maxServedAgeMillis = new AtomicLong();
+
+	/**
+	 * @param ttlMillis how long a report may be served from memory, 0 disables the cache
+	 * @param maxEntries the most reports held at once
+	 */
+	public ReportCache(long ttlMillis, int maxEntries){
+		if (maxEntries < 1) throw new IllegalArgumentException("The report cache must hold at least one report");
+		this._ttlMillis = ttlMillis;
+		this._maxEntries = maxEntries;
+	}
+
+	/**
+	 * Returns the cached report, or computes and caches it.
+	 *
+	 * @param key identifies the report and its arguments
+	 * @param loader runs the report query on a miss
+	 * @return the report
+	 * @throws java.sql.SQLException when the report query fails
+	 */
+	public QueryResult get(String key, Loader loader) throws SQLException {
+		long now = System.currentTimeMillis();
+		long generation = this._generation.get();
+		Entry entry = this._entries.get(key);
+		if (entry != null && entry.generation == generation){
+			long age = now - entry.loadedAt;
+			if (age < this._ttlMillis){
+				this._hits.incrementAndGet();
+				this._servedAgeMillis.addAndGet(age);
+				this._maxServedAgeMillis.accumulateAndGet(age, Math::max);
+				return entry.result;
+			}
+			this._expired.incrementAndGet();
+		}
+		this._misses.incrementAndGet();
+		QueryResult result = loader.load();
+		if (this._ttlMillis > 0){
+			if (!this._entries.containsKey(key)) makeRoom();
+			this._entries.put(key, new Entry(result, generation, now));
+		}
+		return result;
+	}
+
+	//drops the oldest reports until there is room for one more; a scan, since the cache is small
+	private void makeRoom(){
+		while (this._entries.size() >= this._maxEntries){
+			String oldest = null;
+			long oldestAt = Long.MAX_VALUE;
+			for (Map.Entry<String, Entry> e : this._entries.entrySet()){
+				if (e.getValue().loadedAt < oldestAt){
+					oldest = e.getKey();
+					oldestAt = e.getValue().loadedAt;
+				}
+			}
+			if (oldest == null || this._entries.remove(oldest) == null) return;
+			this._evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drops every cached report. Called after writes that change the reports.
+	 */
+	public void invalidate(){
+		this._generation.incrementAndGet();
+		this._invalidations.incrementAndGet();
+		this._entries.clear();
+	}
+
+	/**
+	 * @return the fraction of lookups served from memory, between 0 and 1
+	 */
+	public double getHitRate(){
+		long hits = this._hits.get();
+		long total = hits + this._misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return a one line summary of the hit rate and staleness of served reports
+	 */
+	public String getStats(){
+		long hits = this._hits.get();
+		double avgAge = hits == 0 ? 0 : (double) this._servedAgeMillis.get() / hits;
+		return String.format("report cache: ttl=%dms entries=%d/%d hits=%d misses=%d expired=%d evicted=%d invalidations=%d hitRate=%.1f%% avgServedAge=%.0fms maxServedAge=%dms",
+			this._ttlMillis, this._entries.size(), this._maxEntries, hits, this._misses.get(), this._expired.get(),
+			this._evictions.get(), this._invalidations.get(), 100 * getHitRate(), avgAge, this._maxServedAgeMillis.get());
+	}
+}
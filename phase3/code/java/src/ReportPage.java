@@ -0,0 +1,125 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * One page of a report read with keyset (seek) pagination: the query of the
+ * next page starts right after the sort key of the last row of this one, so
+ * every page is an index range scan of limit rows, however deep it is,
+ * instead of a sort of the whole result followed by OFFSET.
+ *
+ * The position is handed to clients as an opaque cursor token holding the
+ * report name and the sort key of the last row. The token is only
+ * meaningful for the report that produced it. It stays valid across
+ * writes: rows added before the position are skipped and rows added after
+ * it show up on a later page.
+ *
+ */
+public class ReportPage extends QueryResult{
+	//separates the report name and the keys inside a token, none of them contains it
+	private static final char SEPARATOR = '\t';
+
+	private final String _nextCursor;
+
+	private ReportPage(ColumnarResult data, String nextCursor){
+		super(data);
+		this._nextCursor = nextCursor;
+	}
+
+	/**
+	 * @return the cursor of the next page, or null when this is the last page
+	 */
+	public String getNextCursor(){
+		return this._nextCursor;
+	}
+
+	/**
+	 * Wraps the rows of a page, taking the next cursor from the sort key of
+	 * the last row. A page shorter than limit is the last one.
+	 *
+	 * @param report the report name carried in the cursor
+	 * @param rows the rows of the page
+	 * @param limit the page size that was asked for
+	 * @param keyColumns the columns of the sort key, in sort order
+	 * @return the page
+	 */
+	static ReportPage of(String report, QueryResult rows, int limit, String... keyColumns){
+		ColumnarResult data = rows.getColumnar();
+		if (data.getRowCount() < limit) return new ReportPage(data, null);
+		int last = data.getRowCount() - 1;
+		StringBuilder sb = new StringBuilder(report);
+		for (String key : keyColumns){
+			int column = data.findColumn(key);
+			if (column < 0) throw new IllegalStateException("The page has no column " + key);
+			sb.append(SEPARATOR).append(data.getString(last, column));
+		}
+		String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+		return new ReportPage(data, cursor);
+	}
+
+	/**
+	 * Reads the sort key out of a cursor.
+	 *
+	 * @param report the report the cursor must belong to
+	 * @param cursor the token, or null for the first page
+	 * @param keys the number of key columns
+	 * @return the key values, or null for the first page
+	 * @throws IllegalArgumentException when the token is malformed or belongs to another report
+	 */
+	static String[] after(String report, String cursor, int keys){
+		if (cursor == null || cursor.isEmpty()) return null;
+		String[] parts;
+		try{
+			parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(String.valueOf(SEPARATOR), -1);
+		}catch (IllegalArgumentException e){
+			throw new IllegalArgumentException("Invalid cursor: " + cursor);
+		}
+		if (parts.length != keys + 1 || !parts[0].equals(report)) throw new IllegalArgumentException("Invalid cursor for " + report + ": " + cursor);
+		String[] values = new String[keys];
+		System.arraycopy(parts, 1, values, 0, keys);
+		return values;
+	}
+
+	/**
+	 * @return the key at index as an int, or first when there is no cursor
+	 */
+	static int intKey(String[] after, int index, int first){
+		if (after == null) return first;
+		try{
+			return Integer.parseInt(after[index].trim());
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException("Invalid cursor key: " + after[index]);
+		}
+	}
+
+	/**
+	 * @return the key at index as a long, or first when there is no cursor
+	 */
+	static long longKey(String[] after, int index, long first){
+		if (after == null) return first;
+		try{
+			return Long.parseLong(after[index].trim());
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException("Invalid cursor key: " + after[index]);
+		}
+	}
+
+	/**
+	 * @return the key at index, or first when there is no cursor
+	 */
+	static String stringKey(String[] after, int index, String first){
+		return after == null ? first : after[index];
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes query results as an aligned table, TSV, CSV or JSON. Rows are
+ * formatted into one reused StringBuilder that is handed to the Writer only
+ * when it holds BUFFER_SIZE characters, and the cells of a streamed row are
+ * read into one reused array, so rendering a large report makes a write
+ * call every few hundred rows instead of one per cell.
+ *
+ * toStdout() writes to the stdout file descriptor directly rather than
+ * through System.out, whose every print takes a lock and, with autoflush,
+ * ends in a system call per line. When stdout is a file or a pipe the dump
+ * is limited by the I/O alone.
+ *
+ * A renderer is a RowHandler, so it can be passed to
+ * MechanicShop.streamQuery() to print a result of any size without holding
+ * it in memory, or given a whole QueryResult with render(). Call close()
+ * when done: it writes the trailer and flushes.
+ *
+ */
+public abstract class ResultRenderer implements RowHandler, AutoCloseable{
+	public enum Format{
+		TABLE, TSV, CSV, JSON;
+
+		/**
+		 * @param name table, tsv, csv or json, ignoring case
+		 * @return the format
+		 */
+		public static Format parse(String name){
+			try{
+				return valueOf(name.trim().toUpperCase(Locale.ROOT));
+			}catch (IllegalArgumentException e){
+				throw new IllegalArgumentException("Unknown format " + name + ", expected table, tsv, csv or json");
+			}
+		}
+	}
+
+	static final int BUFFER_SIZE = 1 << 16;
+	//a streamed table pads every column to its declared size, up to this
+	static final int MAX_STREAMED_WIDTH = 40;
+
+	private final Writer _out;
+	private final boolean _closeOut;
+	//the pending output, written out whenever it fills up
+	protected final StringBuilder _buffer = new StringBuilder(BUFFER_SIZE + 1024);
+	//the buffer's characters are copied here to be written, instead of a new String every time
+	private char[] _chars = new char[BUFFER_SIZE + 1024];
+	//the cells of the current streamed row
+	private String[] _cells = new String[0];
+	private boolean _started = false;
+	private boolean _closed = false;
+
+	protected ResultRenderer(Writer out, boolean closeOut){
+		this._out = out;
+		this._closeOut = closeOut;
+	}
+
+	/**
+	 * @return the format set by -Dprint.format, tsv when it is not set
+	 */
+	public static Format getDefaultFormat(){
+		return Format.parse(System.getProperty("print.format", "tsv"));
+	}
+
+	/**
+	 * @param format the output format
+	 * @param out where the output goes, closed by close()
+	 * @return the renderer
+	 */
+	public static ResultRenderer create(Format format, Writer out){
+		return create(format, out, true);
+	}
+
+	/**
+	 * Renders to the process' standard output, bypassing System.out. The
+	 * output is flushed but not closed by close().
+	 *
+	 * @param format the output format
+	 * @return the renderer
+	 */
+	public static ResultRenderer toStdout(Format format){
+		// whatever was printed before must come out first
+		System.out.flush();
+		return create(format, new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), false);
+	}
+
+	/**
+	 * @param format the output format
+	 * @param file the file, replaced if it exists
+	 * @return the renderer
+	 * @throws java.io.IOException when the file cannot be created
+	 */
+	public static ResultRenderer toFile(Format format, File file) throws IOException {
+		return create(format, new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), true);
+	}
+
+	private static ResultRenderer create(Format format, Writer out, boolean closeOut){
+		switch (format){
+			case TABLE: return new Table(out, closeOut);
+			case CSV: return new Csv(out, closeOut);
+			case JSON: return new JsonRows(out, closeOut);
+			default: return new Tsv(out, closeOut);
+		}
+	}
+
+	/**
+	 * Writes the header.
+	 *
+	 * @param columns the column names
+	 * @param widths the width of every column, only used by the aligned table
+	 */
+	public void start(List<String> columns, int[] widths){
+		if (this._started) throw new IllegalStateException("The header was already written");
+		this._started = true;
+		this._cells = new String[columns.size()];
+		header(columns, widths);
+		flushIfFull();
+	}
+
+	/**
+	 * Writes one row.
+	 *
+	 * @param cells one value per column, null for NULL; not kept after the call
+	 */
+	public void row(String[] cells){
+		appendRow(cells);
+		flushIfFull();
+	}
+
+	/**
+	 * Writes a whole result, header included, with the table columns as
+	 * wide as their widest value.
+	 *
+	 * @param result the result
+	 */
+	public void render(QueryResult result){
+		ColumnarResult data = result.getColumnar();
+		int numCol = data.getColumnCount();
+		int[] widths = new int[numCol];
+		for (int i = 0; i < numCol; ++i){
+			widths[i] = data.getColumnName(i).length();
+			for (int r = 0; r < data.getRowCount(); ++r){
+				String value = data.getString(r, i);
+				widths[i] = Math.max(widths[i], value == null ? 4 : value.length());
+			}
+		}
+		start(result.getColumns(), widths);
+		String[] cells = this._cells;
+		for (int r = 0; r < data.getRowCount(); ++r){
+			for (int i = 0; i < numCol; ++i)
+				cells[i] = data.getString(r, i);
+			row(cells);
+		}
+	}
+
+	@Override
+	public void start(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		String[] columns = new String[numCol];
+		int[] widths = new int[numCol];
+		for (int i = 1; i <= numCol; ++i){
+			columns[i - 1] = rsmd.getColumnName(i);
+			widths[i - 1] = Math.max(columns[i - 1].length(), Math.min(MAX_STREAMED_WIDTH, rsmd.getColumnDisplaySize(i)));
+		}
+		start(Arrays.asList(columns), widths);
+	}
+
+	@Override
+	public void handleRow(ResultSet rs, int rowNumber) throws SQLException {
+		String[] cells = this._cells;
+		for (int i = 0; i < cells.length; ++i)
+			cells[i] = rs.getString(i + 1);
+		row(cells);
+	}
+
+	/**
+	 * Writes the trailer, flushes the output and closes it unless it is
+	 * stdout.
+	 *
+	 * @throws java.io.UncheckedIOException when the output fails
+	 */
+	@Override
+	public void close(){
+		if (this._closed) return;
+		this._closed = true;
+		if (this._started) trailer();
+		try{
+			writeBuffer();
+			if (this._closeOut) this._out.close();
+			else this._out.flush();
+		}catch (IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void flushIfFull(){
+		if (this._buffer.length() < BUFFER_SIZE) return;
+		try{
+			writeBuffer();
+		}catch (IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		int length = this._buffer.length();
+		if (length > this._chars.length) this._chars = new char[length];
+		this._buffer.getChars(0, length, this._chars, 0);
+		this._out.write(this._chars, 0, length);
+		this._buffer.setLength(0);
+	}
+
+	protected abstract void header(List<String> columns, int[] widths);
+
+	protected abstract void appendRow(String[] cells);
+
+	protected void trailer(){
+	}
+
+	//tab separated, NULL as null, as the console always printed; tabs and line breaks in a value become spaces
+	private static class Tsv extends ResultRenderer{
+		Tsv(Writer out, boolean closeOut){
+			super(out, closeOut);
+		}
+
+		protected void header(List<String> columns, int[] widths){
+			for (int i = 0; i < columns.size(); ++i){
+				if (i > 0) this._buffer.append('\t');
+				append(columns.get(i));
+			}
+			this._buffer.append('\n');
+		}
+
+		protected void appendRow(String[] cells){
+			for (int i = 0; i < cells.length; ++i){
+				if (i > 0) this._buffer.append('\t');
+				append(cells[i]);
+			}
+			this._buffer.append('\n');
+		}
+
+		private void append(String value){
+			if (value == null){
+				this._buffer.append("null");
+				return;
+			}
+			for (int i = 0; i < value.length(); ++i){
+				char c = value.charAt(i);
+				this._buffer.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+			}
+		}
+	}
+
+	//RFC 4180: quoted only when needed, NULL as an empty field
+	private static class Csv extends ResultRenderer{
+		Csv(Writer out, boolean closeOut){
+			super(out, closeOut);
+		}
+
+		protected void header(List<String> columns, int[] widths){
+			for (int i = 0; i < columns.size(); ++i){
+				if (i > 0) this._buffer.append(',');
+				append(columns.get(i));
+			}
+			this._buffer.append("\r\n");
+		}
+
+		protected void appendRow(String[] cells){
+			for (int i = 0; i < cells.length; ++i){
+				if (i > 0) this._buffer.append(',');
+				append(cells[i]);
+			}
+			this._buffer.append("\r\n");
+		}
+
+		private void append(String value){
+			if (value == null) return;
+			boolean quote = false;
+			for (int i = 0; i < value.length() && !quote; ++i){
+				char c = value.charAt(i);
+				quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}
+			if (!quote){
+				this._buffer.append(value);
+				return;
+			}
+			this._buffer.append('"');
+			for (int i = 0; i < value.length(); ++i){
+				char c = value.charAt(i);
+				if (c == '"') this._buffer.append('"');
+				this._buffer.append(c);
+			}
+			this._buffer.append('"');
+		}
+	}
+
+	//the same {"columns":[...],"rows":[[...],...]} object as the script and HTTP modes
+	private static class JsonRows extends ResultRenderer{
+		private boolean _first = true;
+
+		JsonRows(Writer out, boolean closeOut){
+			super(out, closeOut);
+		}
+
+		protected void header(List<String> columns, int[] widths){
+			this._buffer.append("{\"columns\":");
+			Json.array(this._buffer, columns);
+			this._buffer.append(",\"rows\":[");
+		}
+
+		protected void appendRow(String[] cells){
+			if (!this._first) this._buffer.append(',');
+			this._first = false;
+			this._buffer.append("\n[");
+			for (int i = 0; i < cells.length; ++i){
+				if (i > 0) this._buffer.append(',');
+				Json.quote(this._buffer, cells[i]);
+			}
+			this._buffer.append(']');
+		}
+
+		protected void trailer(){
+			this._buffer.append("]}\n");
+		}
+	}
+
+	//psql style, every column padded to its width
+	private static class Table extends ResultRenderer{
+		private int[] _widths;
+
+		Table(Writer out, boolean closeOut){
+			super(out, closeOut);
+		}
+
+		protected void header(List<String> columns, int[] widths){
+			this._widths = widths;
+			for (int i = 0; i < columns.size(); ++i){
+				if (i > 0) this._buffer.append(" | ");
+				pad(columns.get(i), widths[i], i == columns.size() - 1);
+			}
+			this._buffer.append('\n');
+			for (int i = 0; i < columns.size(); ++i){
+				if (i > 0) this._buffer.append("-+-");
+				for (int w = 0; w < widths[i]; ++w)
+					this._buffer.append('-');
+			}
+			this._buffer.append('\n');
+		}
+
+		protected void appendRow(String[] cells){
+			for (int i = 0; i < cells.length; ++i){
+				if (i > 0) this._buffer.append(" | ");
+				pad(cells[i] == null ? "null" : cells[i], this._widths[i], i == cells.length - 1);
+			}
+			this._buffer.append('\n');
+		}
+
+		//the last column is not padded, so lines carry no trailing blanks
+		private void pad(String value, int width, boolean last){
+			this._buffer.append(value);
+			if (last) return;
+			for (int w = value.length(); w < width; ++w)
+				this._buffer.append(' ');
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Callback invoked by MechanicShop.streamQuery() once per row while the
+ * result set is being fetched in chunks. The handler reads the columns it
+ * needs from the current row and must not keep a reference to the result
+ * set or call next() on it.
+ *
+ */
+public interface RowHandler{
+	/**
+	 * Called once before the first row, even when there are no rows.
+	 *
+	 * @param rsmd the columns of the result
+	 * @throws java.sql.SQLException when the metadata cannot be read
+	 */
+	default void start(ResultSetMetaData rsmd) throws SQLException {
+	}
+
+	/**
+	 * @param rs the result set positioned on the current row
+	 * @param rowNumber the 1-based number of the current row
+	 * @throws java.sql.SQLException when a column cannot be read
+	 */
+	void handleRow(ResultSet rs, int rowNumber) throws SQLException;
+}
@@ -0,0 +1,89 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Headless front end: reads one JSON command per line, runs it through the
+ * ShopService and writes one JSON result per line, e.g.
+ *
+ *   {"op":"addCar","vin":"XEGUBS7780168971","make":"Toyota","model":"Prius","year":2012}
+ *   {"line":1,"op":"addCar","ok":true,"millis":1.204,"columns":[...],"rows":[[...]]}
+ *
+ * A failed command produces {"line":n,"ok":false,"error":"..."} and the run
+ * continues with the next line. Blank lines and lines starting with # are
+ * ignored.
+ *
+ */
+public class ScriptRunner{
+	private final ShopService _service;
+
+	public ScriptRunner(ShopService service){
+		this._service = service;
+	}
+
+	/**
+	 * Runs every command read from the input.
+	 *
+	 * @param input the command stream
+	 * @param output where the results are written, flushed at the end
+	 * @return the number of failed commands
+	 * @throws java.io.IOException when the input or output fails
+	 */
+	public int run(BufferedReader input, Writer output) throws IOException {
+		long start = System.nanoTime();
+		int lineNumber = 0, commands = 0, failures = 0;
+		StringBuilder sb = new StringBuilder(4096);
+		String line;
+		while ((line = input.readLine()) != null){
+			++lineNumber;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			++commands;
+
+			sb.setLength(0);
+			sb.append("{\"line\":").append(lineNumber);
+			long opStart = System.nanoTime();
+			//where the outcome starts, so a failure while writing the result replaces what was written of it
+			int outcome = sb.length();
+			try{
+				Map<String, Object> command = Json.parseObject(line);
+				String op = ShopService.stringArg(command, "op");
+				sb.append(",\"op\":");
+				Json.quote(sb, op);
+				outcome = sb.length();
+				QueryResult result = this._service.invoke(op, command);
+				sb.append(",\"ok\":true,\"millis\":").append(String.format("%.3f", (System.nanoTime() - opStart) / 1e6)).append(',');
+				Json.result(sb, result);
+			}catch (RuntimeException | SQLException e){
+				// one bad command, whatever it throws, must not end the whole script
+				++failures;
+				sb.setLength(outcome);
+				sb.append(",\"ok\":false,\"error\":");
+				Json.quote(sb, e.getMessage() != null ? e.getMessage() : e.toString());
+			}
+			sb.append("}\n");
+			output.write(sb.toString());
+		}
+		output.flush();
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format("%d command(s), %d failed, %.2fs (%.0f ops/s)",
+			commands, failures, secs, commands / Math.max(secs, 1e-9)));
+		return failures;
+	}
+}
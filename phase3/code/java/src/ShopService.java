@@ -0,0 +1,593 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-interactive versions of the MechanicShop menu operations. Every method
+ * takes its input as arguments, applies the same checks as the console
+ * prompts and returns the written row or the report as a QueryResult.
+ * Invalid input is reported with an IllegalArgumentException.
+ *
+ * The class keeps no state besides the MechanicShop, so one instance can be
+ * shared by many threads; each call borrows its own pooled connection.
+ *
+ */
+public class ShopService{
+	//every insert returns the written row, so creating a record is a single round trip
+	static final String INSERT_CUSTOMER = "INSERT INTO Customer (id, fname, lname, phone, address) VALUES (?, ?, ?, ?, ?) RETURNING id AS Customer_ID, fname AS First_Name, lname AS Last_Name, phone AS Phone_Number, address";
+	static final String INSERT_MECHANIC = "INSERT INTO Mechanic (id, fname, lname, experience) VALUES (?, ?, ?, ?) RETURNING id AS employee_id, fname AS First_Name, lname AS Last_Name, experience";
+	static final String INSERT_CAR = "INSERT INTO Car(vin, make, model, year) VALUES(?, ?, ?, ?) RETURNING *";
+	static final String INSERT_SERVICE_REQUEST = BatchWriter.INSERT_SERVICE_REQUEST + " RETURNING *";
+	//validates, locks the request and inserts in one transaction, see sql/close_request.sql
+	static final String CLOSE_SERVICE_REQUEST = "{call close_service_request(?, ?, ?, ?, ?)}";
+	//the columns of Service_Request, for the rows queued in the intake journal
+	static final List<String> QUEUED_COLUMNS = Arrays.asList("rid", "customer_id", "car_vin", "date", "odometer", "complain");
+
+	//the same columns as the inserts, so a cached row looks the same whether it was read or written
+	static final String CUSTOMER_BY_ID = "SELECT id AS Customer_ID, fname AS First_Name, lname AS Last_Name, phone AS Phone_Number, address FROM Customer WHERE id = ?";
+	static final String MECHANIC_BY_ID = "SELECT id AS employee_id, fname AS First_Name, lname AS Last_Name, experience FROM Mechanic WHERE id = ?";
+	static final String CAR_BY_VIN = "SELECT * FROM Car WHERE vin = ?";
+
+	static final String CUSTOMERS_BY_LAST_NAME = "SELECT * FROM Customer WHERE lname=?";
+	static final String CARS_OWNED_BY = "SELECT * FROM Owns WHERE customer_id=?";
+
+	//-Dreports.months=N limits the date based reports to the last N months, the current one included, so the
+	//planner only scans their partitions of Service_Request and Closed_Request (sql/partition.sql); 0 reads all history
+	static final String REPORT_WINDOW = reportWindow(Integer.getInteger("reports.months", 0));
+
+	static final String CUSTOMERS_WITH_BILL_LESS_THAN_100 = "SELECT c.fname AS First_Name, c.lname AS Last_Name, c.id AS Customer_ID, b.bill FROM Customer c, Service_Request a, Closed_Request b WHERE c.id = a.customer_id AND a.rid = b.rid AND b.bill < 100" + REPORT_WINDOW;
+	static final String CUSTOMERS_WITH_MORE_THAN_20_CARS = "SELECT fname, lname FROM Customer WHERE id IN (SELECT customer_id FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20)";
+	static final String CARS_BEFORE_1995_WITH_50000_MILES = "SELECT DISTINCT vin, make AS Make, model AS Model, year AS Year FROM Car a, Service_Request b WHERE year < 1995 and b.car_vin = a.vin and b.odometer < 50000" + REPORT_WINDOW;
+	static final String K_CARS_WITH_THE_MOST_SERVICES = "SELECT make, model, a.number_of_requests FROM Car c, (SELECT car_vin, COUNT(rid) AS number_of_requests FROM Service_Request GROUP BY car_vin ) AS a WHERE a.car_vin = c.vin ORDER BY a.number_of_requests DESC LIMIT ?";
+	//reads the trigger maintained totals from sql/bill_totals.sql in index order, LIMIT NULL means no limit
+	static final String CUSTOMERS_BY_TOTAL_BILL = "SELECT a.fname AS first_name, a.lname AS last_name, t.total_bill FROM Customer_Bill_Totals t, Customer a WHERE a.id = t.customer_id ORDER BY t.total_bill DESC, t.customer_id LIMIT ? OFFSET ?";
+
+	//keyset pages of the five reports: each starts after the sort key of the previous page's last row, which the
+	//first page replaces with a value before every row, so a page is an index range scan that stops after LIMIT rows
+	static final String BILL_LESS_THAN_100_PAGE = "SELECT c.fname AS First_Name, c.lname AS Last_Name, c.id AS Customer_ID, b.bill, b.wid AS close_request_id FROM Closed_Request b, Service_Request a, Customer c WHERE a.rid = b.rid AND c.id = a.customer_id AND b.bill < 100 AND b.wid > ?" + REPORT_WINDOW + " ORDER BY b.wid LIMIT ?";
+	static final String MORE_THAN_20_CARS_PAGE = "SELECT c.fname, c.lname, c.id AS Customer_ID FROM (SELECT customer_id FROM Owns WHERE customer_id > ? GROUP BY customer_id HAVING COUNT(customer_id) > 20 ORDER BY customer_id LIMIT ?) o, Customer c WHERE c.id = o.customer_id ORDER BY c.id";
+	static final String CARS_BEFORE_1995_PAGE = "SELECT a.vin, a.make AS Make, a.model AS Model, a.year AS Year FROM Car a WHERE a.year < 1995 AND a.vin > ? AND EXISTS (SELECT 1 FROM Service_Request b WHERE b.car_vin = a.vin AND b.odometer < 50000" + REPORT_WINDOW + ") ORDER BY a.vin LIMIT ?";
+	//descending counts with ascending ties: the <= bound is the index range, the OR only filters the ties at the boundary
+	static final String MOST_SERVICED_CARS_PAGE = "SELECT c.make, c.model, s.number_of_requests, s.car_vin AS vin FROM Car_Service_Counts s, Car c WHERE c.vin = s.car_vin AND s.number_of_requests <= ? AND (s.number_of_requests < ? OR s.car_vin > ?) ORDER BY s.number_of_requests DESC, s.car_vin LIMIT ?";
+	static final String TOTAL_BILL_PAGE = "SELECT a.fname AS first_name, a.lname AS last_name, t.total_bill, t.customer_id FROM Customer_Bill_Totals t, Customer a WHERE a.id = t.customer_id AND t.total_bill <= ? AND (t.total_bill < ? OR t.customer_id > ?) ORDER BY t.total_bill DESC, t.customer_id LIMIT ?";
+
+	private final MechanicShop _esql;
+	//every operation is timed here, together with the JDBC calls it makes
+	private final Metrics _metrics;
+	//the five reports are served from here until a service request is opened or closed
+	private final ReportCache _reports = new ReportCache(Long.getLong("reports.ttlMillis", 60000L), Integer.getInteger("reports.maxEntries", 64));
+	//Customer, Mechanic and Car rows for the lookups and the checks before a write
+	private final EntityCache _entities = new EntityCache(Integer.getInteger("entities.maxSize", 10000), Long.getLong("entities.ttlMillis", 300000L));
+	//keys for the records created without one
+	private final IdAllocator _customerIds;
+	private final IdAllocator _mechanicIds;
+	private final IdAllocator _serviceRequestIds;
+	private final IdAllocator _closedRequestIds;
+	private final CustomerSearch _customerSearch;
+	//the write-behind queue of queueServiceRequest, null when -Dintake.journal is not set
+	private volatile IntakeJournal _intake;
+
+	public ShopService(MechanicShop esql){
+		this._esql = esql;
+		this._metrics = esql.getMetrics();
+		this._customerIds = new IdAllocator(esql, IdAllocator.CUSTOMER);
+		this._mechanicIds = new IdAllocator(esql, IdAllocator.MECHANIC);
+		this._serviceRequestIds = new IdAllocator(esql, IdAllocator.SERVICE_REQUEST);
+		this._closedRequestIds = new IdAllocator(esql, IdAllocator.CLOSED_REQUEST);
+		this._customerSearch = new CustomerSearch(esql);
+	}
+
+	public ReportCache getReportCache(){
+		return this._reports;
+	}
+
+	public EntityCache getEntityCache(){
+		return this._entities;
+	}
+
+	public MechanicShop getShop(){
+		return this._esql;
+	}
+
+	/**
+	 * Sends queueServiceRequest through the journal from now on.
+	 *
+	 * @param intake the opened journal, closed by close()
+	 */
+	public void startIntake(IntakeJournal intake){
+		this._intake = intake;
+	}
+
+	/**
+	 * @return the intake journal, or null when service requests are written synchronously
+	 */
+	public IntakeJournal getIntake(){
+		return this._intake;
+	}
+
+	/**
+	 * Closes the intake journal, giving the drainer time to write what it holds.
+	 */
+	public void close(){
+		IntakeJournal intake = this._intake;
+		if (intake != null) intake.close();
+	}
+
+	/**
+	 * Adds a customer under a new key from customer_id_seq.
+	 *
+	 * @return the new row, its first column is the key
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public QueryResult addCustomer(String fname, String lname, String phone, String address) throws SQLException {
+		return addCustomer(null, fname, lname, phone, address);
+	}
+
+	/**
+	 * Adds a customer under the given key. A key that is in use is reported
+	 * by the primary key as SQLState 23505.
+	 *
+	 * @param id the key, or null to allocate one
+	 * @return the new row
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public QueryResult addCustomer(Integer id, String fname, String lname, String phone, String address) throws SQLException {
+		return this._metrics.time("addCustomer", () -> {
+			checkLength("First name", fname, 32);
+			checkLength("Last name", lname, 32);
+			checkLength("Phone number", phone, 13);
+			checkLength("Address", address, 256);
+			int key = id != null ? id : this._customerIds.next();
+			QueryResult added = this._esql.executeQueryAndReturnTable(INSERT_CUSTOMER, key, fname, lname, phone, address);
+			this._entities.put("Customer", key, added);
+			return added;
+		});
+	}
+
+	/**
+	 * Adds a mechanic under a new key from mechanic_id_seq.
+	 *
+	 * @return the new row, its first column is the key
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public QueryResult addMechanic(String fname, String lname, int experience) throws SQLException {
+		return addMechanic(null, fname, lname, experience);
+	}
+
+	/**
+	 * @param id the key, or null to allocate one
+	 * @return the new row
+	 * @throws java.sql.SQLException when the insert fails, with SQLState 23505 when the key is in use
+	 */
+	public QueryResult addMechanic(Integer id, String fname, String lname, int experience) throws SQLException {
+		return this._metrics.time("addMechanic", () -> {
+			checkLength("First name", fname, 32);
+			checkLength("Last name", lname, 32);
+			if (experience < 0 || experience >= 100) throw new IllegalArgumentException("Employee's experience cannot be null or greater or equal to 100");
+			int key = id != null ? id : this._mechanicIds.next();
+			QueryResult added = this._esql.executeQueryAndReturnTable(INSERT_MECHANIC, key, fname, lname, experience);
+			this._entities.put("Mechanic", key, added);
+			return added;
+		});
+	}
+
+	public QueryResult addCar(String vin, String make, String model, int year) throws SQLException {
+		return this._metrics.time("addCar", () -> {
+			checkLength("VIN", vin, 16);
+			checkLength("Make", make, 32);
+			checkLength("Model", model, 32);
+			if (year < 1970) throw new IllegalArgumentException("Year cannot be less than 1970");
+			QueryResult added = this._esql.executeQueryAndReturnTable(INSERT_CAR, vin, make, model, year);
+			this._entities.put("Car", vin, added);
+			return added;
+		});
+	}
+
+	/**
+	 * Opens a service request under a new rid from service_request_rid_seq.
+	 *
+	 * @return the new row, its first column is the rid
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public QueryResult insertServiceRequest(int customerId, String vin, int odometer, String complain) throws SQLException {
+		return insertServiceRequest(null, customerId, vin, odometer, complain);
+	}
+
+	/**
+	 * @param rid the key, or null to allocate one
+	 * @return the new row
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public QueryResult insertServiceRequest(Integer rid, int customerId, String vin, int odometer, String complain) throws SQLException {
+		return this._metrics.time("insertServiceRequest", () -> {
+			checkLength("VIN", vin, 16);
+			if (odometer <= 0) throw new IllegalArgumentException("Odometer reading must be positive");
+			// checked in memory first, the foreign keys still have the last word
+			if (getCustomer(customerId).isEmpty()) throw new IllegalArgumentException("Customer does not exist");
+			if (getCar(vin).isEmpty()) throw new IllegalArgumentException("Car does not exist");
+			int key = rid != null ? rid : this._serviceRequestIds.next();
+			Date today = new Date(System.currentTimeMillis());
+			QueryResult added = this._esql.executeQueryAndReturnTable(INSERT_SERVICE_REQUEST, key, customerId, vin, today, odometer, complain);
+			this._reports.invalidate();
+			return added;
+		});
+	}
+
+	/**
+	 * Opens a service request without waiting for the database to write
+	 * it: the input is checked here, the customer and the car through the
+	 * entity cache, then journaled and written later in a batch by the
+	 * IntakeJournal. Without a journal, or when it is full, this is
+	 * insertServiceRequest.
+	 *
+	 * @return the queued row, its first column is the rid
+	 * @throws java.sql.SQLException when a block of rids cannot be reserved, or the synchronous insert fails
+	 */
+	public QueryResult queueServiceRequest(int customerId, String vin, int odometer, String complain) throws SQLException {
+		IntakeJournal intake = this._intake;
+		if (intake == null) return insertServiceRequest(customerId, vin, odometer, complain);
+		return this._metrics.time("queueServiceRequest", () -> {
+			checkLength("VIN", vin, 16);
+			if (odometer <= 0) throw new IllegalArgumentException("Odometer reading must be positive");
+			// checked before the request is acknowledged, from the entity cache when the rows were seen lately
+			if (getCustomer(customerId).isEmpty()) throw new IllegalArgumentException("Customer does not exist");
+			if (getCar(vin).isEmpty()) throw new IllegalArgumentException("Car does not exist");
+			// one call in IdAllocator.BLOCK_SIZE reserves new keys, every other one is served from memory
+			int key = this._serviceRequestIds.next();
+			Date today = new Date(System.currentTimeMillis());
+			try{
+				intake.append(key, customerId, vin, today, odometer, complain);
+			}catch (IntakeJournal.FullException e){
+				// the drainer is far behind, wait for the database like the menu always did
+				return insertServiceRequest(key, customerId, vin, odometer, complain);
+			}
+			return new QueryResult(QUEUED_COLUMNS, Collections.singletonList(Arrays.asList(
+				String.valueOf(key), String.valueOf(customerId), vin, today.toString(), String.valueOf(odometer), complain)));
+		});
+	}
+
+	/**
+	 * Closes a service request under a new wid from closed_request_wid_seq.
+	 *
+	 * @return the new row, its first column is the wid
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public QueryResult closeServiceRequest(int rid, int mid, String comment, int bill) throws SQLException {
+		return closeServiceRequest(null, rid, mid, comment, bill);
+	}
+
+	/**
+	 * @param wid the key, or null to allocate one
+	 * @return the new row
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public QueryResult closeServiceRequest(Integer wid, int rid, int mid, String comment, int bill) throws SQLException {
+		return this._metrics.time("closeServiceRequest", () -> {
+			if (bill <= 0) throw new IllegalArgumentException("Bill must be positive");
+			if (getMechanic(mid).isEmpty()) throw new IllegalArgumentException("Mechanic does not exist");
+			int key = wid != null ? wid : this._closedRequestIds.next();
+			QueryResult closed;
+			try{
+				closed = this._esql.executeCallAndReturnTable(CLOSE_SERVICE_REQUEST, key, rid, mid, comment, bill);
+			}catch (SQLException e){
+				// no_data_found: the request or the mechanic does not exist
+				if ("P0002".equals(e.getSQLState())) throw new IllegalArgumentException(serverMessage(e));
+				throw e;
+			}
+			this._reports.invalidate();
+			return closed;
+		});
+	}
+
+	public QueryResult findCustomersByLastName(String lname) throws SQLException {
+		return this._metrics.time("findCustomersByLastName", () -> this._esql.executeQueryAndReturnTable(CUSTOMERS_BY_LAST_NAME, lname));
+	}
+
+	/**
+	 * @param id the customer's key
+	 * @return the customer, or an empty result when there is none
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public QueryResult getCustomer(int id) throws SQLException {
+		return this._metrics.time("getCustomer", () -> this._entities.get("Customer", id, () -> this._esql.executeQueryAndReturnTable(CUSTOMER_BY_ID, id)));
+	}
+
+	/**
+	 * @param id the mechanic's key
+	 * @return the mechanic, or an empty result when there is none
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public QueryResult getMechanic(int id) throws SQLException {
+		return this._metrics.time("getMechanic", () -> this._entities.get("Mechanic", id, () -> this._esql.executeQueryAndReturnTable(MECHANIC_BY_ID, id)));
+	}
+
+	/**
+	 * @param vin the car's VIN
+	 * @return the car, or an empty result when there is none
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public QueryResult getCar(String vin) throws SQLException {
+		return this._metrics.time("getCar", () -> {
+			checkLength("VIN", vin, 16);
+			return this._entities.get("Car", vin, () -> this._esql.executeQueryAndReturnTable(CAR_BY_VIN, vin));
+		});
+	}
+
+	/**
+	 * Finds customers by part of their name or phone number, see CustomerSearch.
+	 *
+	 * @param term part of a first name, last name or phone number
+	 * @param limit the page size, or null for the first 20 matches
+	 * @param offset the number of matches to skip
+	 * @return the page, best matches first
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public QueryResult searchCustomers(String term, Integer limit, int offset) throws SQLException {
+		return this._metrics.time("searchCustomers", () -> this._customerSearch.search(term, limit == null ? 20 : limit, offset));
+	}
+
+	public QueryResult listCarsOwnedBy(int customerId) throws SQLException {
+		return this._metrics.time("listCarsOwnedBy", () -> this._esql.executeQueryAndReturnTable(CARS_OWNED_BY, customerId));
+	}
+
+	public QueryResult listCustomersWithBillLessThan100() throws SQLException {
+		return this._metrics.time("listCustomersWithBillLessThan100", () -> this._reports.get("billLessThan100", () -> this._esql.executeQueryAndReturnTable(CUSTOMERS_WITH_BILL_LESS_THAN_100)));
+	}
+
+	public QueryResult listCustomersWithMoreThan20Cars() throws SQLException {
+		return this._metrics.time("listCustomersWithMoreThan20Cars", () -> this._reports.get("moreThan20Cars", () -> this._esql.executeQueryAndReturnTable(CUSTOMERS_WITH_MORE_THAN_20_CARS)));
+	}
+
+	public QueryResult listCarsBefore1995With50000Milles() throws SQLException {
+		return this._metrics.time("listCarsBefore1995With50000Milles", () -> this._reports.get("carsBefore1995", () -> this._esql.executeQueryAndReturnTable(CARS_BEFORE_1995_WITH_50000_MILES)));
+	}
+
+	public QueryResult listKCarsWithTheMostServices(int k) throws SQLException {
+		return this._metrics.time("listKCarsWithTheMostServices", () -> {
+			if (k <= 0) throw new IllegalArgumentException("The number of cars must be positive");
+			return this._reports.get("mostServicedCars:" + k, () -> this._esql.executeQueryAndReturnTable(K_CARS_WITH_THE_MOST_SERVICES, k));
+		});
+	}
+
+	public QueryResult listCustomersInDescendingOrderOfTheirTotalBill() throws SQLException {
+		return listCustomersInDescendingOrderOfTheirTotalBill(null, 0);
+	}
+
+	/**
+	 * Returns one page of the customers ranked by their total bill.
+	 *
+	 * @param limit the page size, or null for every remaining row
+	 * @param offset the number of ranked customers to skip
+	 * @return the page
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public QueryResult listCustomersInDescendingOrderOfTheirTotalBill(Integer limit, int offset) throws SQLException {
+		return this._metrics.time("listCustomersInDescendingOrderOfTheirTotalBill", () -> {
+			if ((limit != null && limit <= 0) || offset < 0) throw new IllegalArgumentException("Invalid page: limit=" + limit + ", offset=" + offset);
+			// only the first page is worth keeping, the others are as many as the clients choose offsets
+			if (offset > 0) return this._esql.executeQueryAndReturnTable(CUSTOMERS_BY_TOTAL_BILL, limit, offset);
+			return this._reports.get("totalBill:" + limit, () -> this._esql.executeQueryAndReturnTable(CUSTOMERS_BY_TOTAL_BILL, limit, 0));
+		});
+	}
+
+	/**
+	 * Returns one page of the customers with a bill under 100, in closed
+	 * request order.
+	 *
+	 * @param limit the page size
+	 * @param cursor the previous page's next cursor, or null for the first page
+	 * @return the page with the cursor of the next one
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public ReportPage pageCustomersWithBillLessThan100(int limit, String cursor) throws SQLException {
+		return this._metrics.time("pageCustomersWithBillLessThan100", () -> {
+			checkPageSize(limit);
+			String[] after = ReportPage.after("billLessThan100", cursor, 1);
+			return firstPageCached("billLessThan100", limit, cursor, () -> {
+				QueryResult rows = this._esql.executeQueryAndReturnTable(BILL_LESS_THAN_100_PAGE, ReportPage.intKey(after, 0, Integer.MIN_VALUE), limit);
+				return ReportPage.of("billLessThan100", rows, limit, "close_request_id");
+			});
+		});
+	}
+
+	/**
+	 * Returns one page of the customers with more than 20 cars, by id.
+	 *
+	 * @param limit the page size
+	 * @param cursor the previous page's next cursor, or null for the first page
+	 * @return the page with the cursor of the next one
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public ReportPage pageCustomersWithMoreThan20Cars(int limit, String cursor) throws SQLException {
+		return this._metrics.time("pageCustomersWithMoreThan20Cars", () -> {
+			checkPageSize(limit);
+			String[] after = ReportPage.after("moreThan20Cars", cursor, 1);
+			return firstPageCached("moreThan20Cars", limit, cursor, () -> {
+				QueryResult rows = this._esql.executeQueryAndReturnTable(MORE_THAN_20_CARS_PAGE, ReportPage.intKey(after, 0, Integer.MIN_VALUE), limit);
+				return ReportPage.of("moreThan20Cars", rows, limit, "customer_id");
+			});
+		});
+	}
+
+	/**
+	 * Returns one page of the cars made before 1995 with a request under
+	 * 50000 miles, by VIN.
+	 *
+	 * @param limit the page size
+	 * @param cursor the previous page's next cursor, or null for the first page
+	 * @return the page with the cursor of the next one
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public ReportPage pageCarsBefore1995With50000Milles(int limit, String cursor) throws SQLException {
+		return this._metrics.time("pageCarsBefore1995With50000Milles", () -> {
+			checkPageSize(limit);
+			String[] after = ReportPage.after("carsBefore1995", cursor, 1);
+			return firstPageCached("carsBefore1995", limit, cursor, () -> {
+				QueryResult rows = this._esql.executeQueryAndReturnTable(CARS_BEFORE_1995_PAGE, ReportPage.stringKey(after, 0, ""), limit);
+				return ReportPage.of("carsBefore1995", rows, limit, "vin");
+			});
+		});
+	}
+
+	/**
+	 * Returns one page of the cars by number of service requests, most
+	 * serviced first, read from the counts kept by sql/service_counts.sql.
+	 *
+	 * @param limit the page size
+	 * @param cursor the previous page's next cursor, or null for the first page
+	 * @return the page with the cursor of the next one
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public ReportPage pageCarsWithTheMostServices(int limit, String cursor) throws SQLException {
+		return this._metrics.time("pageCarsWithTheMostServices", () -> {
+			checkPageSize(limit);
+			String[] after = ReportPage.after("mostServicedCars", cursor, 2);
+			long requests = ReportPage.longKey(after, 0, Long.MAX_VALUE);
+			return firstPageCached("mostServicedCars", limit, cursor, () -> {
+				QueryResult rows = this._esql.executeQueryAndReturnTable(MOST_SERVICED_CARS_PAGE, requests, requests, ReportPage.stringKey(after, 1, ""), limit);
+				return ReportPage.of("mostServicedCars", rows, limit, "number_of_requests", "vin");
+			});
+		});
+	}
+
+	/**
+	 * Returns one page of the customers ranked by their total bill, the
+	 * keyset counterpart of the LIMIT/OFFSET overload above.
+	 *
+	 * @param limit the page size
+	 * @param cursor the previous page's next cursor, or null for the first page
+	 * @return the page with the cursor of the next one
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public ReportPage pageCustomersByTotalBill(int limit, String cursor) throws SQLException {
+		return this._metrics.time("pageCustomersByTotalBill", () -> {
+			checkPageSize(limit);
+			String[] after = ReportPage.after("totalBill", cursor, 2);
+			long total = ReportPage.longKey(after, 0, Long.MAX_VALUE);
+			return firstPageCached("totalBill", limit, cursor, () -> {
+				QueryResult rows = this._esql.executeQueryAndReturnTable(TOTAL_BILL_PAGE, total, total, ReportPage.intKey(after, 1, Integer.MIN_VALUE), limit);
+				return ReportPage.of("totalBill", rows, limit, "total_bill", "customer_id");
+			});
+		});
+	}
+
+	//the first page is what the console and most clients read, so it is kept with the reports; later pages are
+	//read once each while paging through and would only push the reports out of the bounded cache
+	private ReportPage firstPageCached(String report, int limit, String cursor, ReportCache.Loader loader) throws SQLException {
+		if (cursor != null) return (ReportPage) loader.load();
+		return (ReportPage) this._reports.get("page:" + report + ":" + limit, loader);
+	}
+
+	/**
+	 * Runs an operation by name, taking its arguments from a map such as a
+	 * parsed JSON command. Used by the script and HTTP front ends.
+	 *
+	 * @param op the operation name, e.g. addCustomer or listKCarsWithTheMostServices
+	 * @param args the arguments by name
+	 * @return the result of the operation
+	 * @throws java.sql.SQLException when the operation fails in the database
+	 */
+	public QueryResult invoke(String op, Map<String, Object> args) throws SQLException {
+		if (op == null) throw new IllegalArgumentException("Missing operation");
+		switch (op){
+			// the keys are optional and allocated from the sequences when missing
+			case "addCustomer": return addCustomer(optionalIntArg(args, "id"), stringArg(args, "fname"), stringArg(args, "lname"), stringArg(args, "phone"), stringArg(args, "address"));
+			case "addMechanic": return addMechanic(optionalIntArg(args, "id"), stringArg(args, "fname"), stringArg(args, "lname"), intArg(args, "experience"));
+			case "addCar": return addCar(stringArg(args, "vin"), stringArg(args, "make"), stringArg(args, "model"), intArg(args, "year"));
+			case "insertServiceRequest": return insertServiceRequest(optionalIntArg(args, "rid"), intArg(args, "customer_id"), stringArg(args, "vin"), intArg(args, "odometer"), stringArg(args, "complain"));
+			case "queueServiceRequest": return queueServiceRequest(intArg(args, "customer_id"), stringArg(args, "vin"), intArg(args, "odometer"), stringArg(args, "complain"));
+			case "closeServiceRequest": return closeServiceRequest(optionalIntArg(args, "wid"), intArg(args, "rid"), intArg(args, "mid"), stringArg(args, "comment"), intArg(args, "bill"));
+			case "getCustomer": return getCustomer(intArg(args, "id"));
+			case "getMechanic": return getMechanic(intArg(args, "id"));
+			case "getCar": return getCar(stringArg(args, "vin"));
+			case "findCustomersByLastName": return findCustomersByLastName(stringArg(args, "lname"));
+			case "searchCustomers": return searchCustomers(stringArg(args, "q"), optionalIntArg(args, "limit"),
+				args.get("offset") == null ? 0 : intArg(args, "offset"));
+			case "listCarsOwnedBy": return listCarsOwnedBy(intArg(args, "customer_id"));
+			case "listCustomersWithBillLessThan100": return listCustomersWithBillLessThan100();
+			case "listCustomersWithMoreThan20Cars": return listCustomersWithMoreThan20Cars();
+			case "listCarsBefore1995With50000Milles": return listCarsBefore1995With50000Milles();
+			case "listKCarsWithTheMostServices": return listKCarsWithTheMostServices(intArg(args, "k"));
+			case "listCustomersInDescendingOrderOfTheirTotalBill": return listCustomersInDescendingOrderOfTheirTotalBill(
+				optionalIntArg(args, "limit"),
+				args.get("offset") == null ? 0 : intArg(args, "offset"));
+			// the pages take limit (20 when missing) and the cursor returned as "next" by the previous page
+			case "pageCustomersWithBillLessThan100": return pageCustomersWithBillLessThan100(pageSizeArg(args), stringArg(args, "cursor"));
+			case "pageCustomersWithMoreThan20Cars": return pageCustomersWithMoreThan20Cars(pageSizeArg(args), stringArg(args, "cursor"));
+			case "pageCarsBefore1995With50000Milles": return pageCarsBefore1995With50000Milles(pageSizeArg(args), stringArg(args, "cursor"));
+			case "pageCarsWithTheMostServices": return pageCarsWithTheMostServices(pageSizeArg(args), stringArg(args, "cursor"));
+			case "pageCustomersByTotalBill": return pageCustomersByTotalBill(pageSizeArg(args), stringArg(args, "cursor"));
+			default: throw new IllegalArgumentException("Unknown operation: " + op);
+		}
+	}
+
+	static int intArg(Map<String, Object> args, String name){
+		Object value = args.get(name);
+		if (value == null) throw new IllegalArgumentException("Missing argument: " + name);
+		if (value instanceof Number) return ((Number) value).intValue();
+		try{
+			return Integer.parseInt(value.toString().trim());
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException("Argument " + name + " must be an integer: " + value);
+		}
+	}
+
+	static Integer optionalIntArg(Map<String, Object> args, String name){
+		return args.get(name) == null ? null : intArg(args, name);
+	}
+
+	static int pageSizeArg(Map<String, Object> args){
+		Integer limit = optionalIntArg(args, "limit");
+		return limit == null ? 20 : limit;
+	}
+
+	static String stringArg(Map<String, Object> args, String name){
+		Object value = args.get(name);
+		return value == null ? null : value.toString();
+	}
+
+	//a condition on b.date against a constant, which the planner turns into the partitions to scan
+	private static String reportWindow(int months){
+		if (months < 0) throw new IllegalArgumentException("reports.months cannot be negative");
+		if (months == 0) return "";
+		return " AND b.date >= (date_trunc('month', CURRENT_DATE) - INTERVAL '" + (months - 1) + " months')::date";
+	}
+
+	//the message raised by a PL/pgSQL function, without the ERROR: prefix and the context lines
+	private static String serverMessage(SQLException e){
+		String message = String.valueOf(e.getMessage());
+		int newline = message.indexOf('\n');
+		if (newline >= 0) message = message.substring(0, newline);
+		return message.startsWith("ERROR: ") ? message.substring("ERROR: ".length()) : message;
+	}
+
+	//large enough for an export, small enough that a page never holds a whole production table
+	static final int MAX_PAGE_SIZE = 10000;
+
+	private static void checkPageSize(int limit){
+		if (limit <= 0 || limit > MAX_PAGE_SIZE) throw new IllegalArgumentException("The page size must be between 1 and " + MAX_PAGE_SIZE);
+	}
+
+	//same constraints as the console prompts and the table definitions
+	private static void checkLength(String field, String value, int max){
+		if (value == null || value.length() <= 0 || value.length() > max){
+			throw new IllegalArgumentException(field + " cannot be null or exceed " + max + " characters");
+		}
+	}
+}
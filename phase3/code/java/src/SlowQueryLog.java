@@ -0,0 +1,266 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Logs every statement slower than a threshold, with its bound parameters,
+ * timing and plan, one JSON object per line:
+ *
+ *   {"time":"...","op":"listCustomersWithBillLessThan100","call":"query","millis":812.4,"ok":true,
+ *    "sql":"SELECT ...","params":[...],"plan":[{"Plan":{...},"Execution Time":798.1}]}
+ *
+ * The calling thread only compares the elapsed time with the threshold and
+ * queues the statement; a background thread runs the EXPLAIN and writes the
+ * file, so statements under the threshold pay nothing and slow ones only pay
+ * for a queue offer. When the queue is full the statement is dropped and
+ * counted.
+ *
+ * Queries are explained with EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON), which
+ * runs them again inside a transaction that is rolled back. Other statements
+ * are only planned with EXPLAIN (FORMAT JSON), since re-running an INSERT
+ * would fail on its own key. The same SQL text is explained at most once per
+ * EXPLAIN_INTERVAL_MILLIS; later occurrences are still logged with "plan":null.
+ *
+ * The file is rotated when it grows past maxBytes: file becomes file.1,
+ * file.1 becomes file.2 and so on, keeping at most maxFiles old files.
+ *
+ */
+public class SlowQueryLog{
+	/**
+	 * A log that records nothing, used until the connection pool is open.
+	 */
+	static final SlowQueryLog DISABLED = new SlowQueryLog(null, -1, null, 0, 0);
+
+	private static final int QUEUE_SIZE = 64;
+	private static final long EXPLAIN_INTERVAL_MILLIS = 60000;
+	//{call f(?, ?)}: the function name and its argument list, if any
+	private static final Pattern CALL_ESCAPE = Pattern.compile("\\{\\s*call\\s+([A-Za-z_][A-Za-z0-9_.]*)\\s*(\\(.*\\))?\\s*\\}", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private static class Entry{
+		final long time = System.currentTimeMillis();
+		final String op;
+		final String call;
+		final double millis;
+		final boolean ok;
+		final String sql;
+		final Object[] params;
+
+		Entry(Metrics.Sample sample, String sql, Object[] params){
+			this.op = sample.getOperation();
+			this.call = sample.getCall();
+			this.millis = sample.getNanos() / 1e6;
+			this.ok = sample.isOk();
+			this.sql = sql;
+			this.params = params;
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final long _thresholdNanos;
+	private final File _file;
+	private final long _maxBytes;
+	private final int _maxFiles;
+	private final BlockingQueue<Entry> _queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+	//SQL text to the time it was last explained
+	private final ConcurrentHashMap<String, Long> _explainedAt = new ConcurrentHashMap<String, Long>();
+	private final Thread _worker;
+	private volatile boolean _closed = false;
+
+	private final AtomicLong _logged = new AtomicLong();
+	private final AtomicLong _explained = new AtomicLong();
+	private final AtomicLong _dropped = new AtomicLong();
+
+	/**
+	 * @param pool the pool the EXPLAIN connections are borrowed from
+	 * @param thresholdMillis statements at least this slow are logged, negative disables the log
+	 * @param file the log file
+	 * @param maxBytes the size at which the file is rotated
+	 * @param maxFiles the number of rotated files kept
+	 */
+	public SlowQueryLog(ConnectionPool pool, long thresholdMillis, File file, long maxBytes, int maxFiles){
+		this._pool = pool;
+		this._thresholdNanos = thresholdMillis < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this._file = file;
+		this._maxBytes = maxBytes;
+		this._maxFiles = maxFiles;
+		if (thresholdMillis < 0 || pool == null){
+			this._worker = null;
+			return;
+		}
+		this._worker = new Thread(this::drain, "slow-query-log");
+		this._worker.setDaemon(true);
+		this._worker.start();
+	}
+
+	/**
+	 * Queues a finished statement if it was slower than the threshold.
+	 *
+	 * @param sample the ended measurement of the statement
+	 * @param sql the statement
+	 * @param params its bound parameters
+	 */
+	public void offer(Metrics.Sample sample, String sql, Object... params){
+		if (sample.getNanos() < this._thresholdNanos || this._worker == null) return;
+		// EXPLAIN statements such as IndexBenchmark's already are the plan
+		if (sql.trim().regionMatches(true, 0, "EXPLAIN", 0, 7)) return;
+		if (!this._queue.offer(new Entry(sample, sql, params))) this._dropped.incrementAndGet();
+	}
+
+	private void drain(){
+		while (!this._closed){
+			Entry entry;
+			try{
+				entry = this._queue.poll(1, TimeUnit.SECONDS);
+			}catch (InterruptedException e){
+				return;
+			}
+			if (entry == null) continue;
+			try{
+				write(entry);
+			}catch (IOException e){
+				System.err.println("Unable to write " + this._file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private void write(Entry entry) throws IOException {
+		StringBuilder sb = new StringBuilder(4096);
+		sb.append("{\"time\":");
+		Json.quote(sb, Instant.ofEpochMilli(entry.time).toString());
+		sb.append(",\"op\":");
+		Json.quote(sb, entry.op);
+		sb.append(",\"call\":");
+		Json.quote(sb, entry.call);
+		sb.append(",\"millis\":").append(String.format("%.3f", entry.millis));
+		sb.append(",\"ok\":").append(entry.ok);
+		sb.append(",\"sql\":");
+		Json.quote(sb, entry.sql);
+		sb.append(",\"params\":[");
+		for (int i = 0; i < entry.params.length; ++i){
+			if (i > 0) sb.append(',');
+			if (entry.params[i] == null) sb.append("null");
+			else Json.quote(sb, String.valueOf(entry.params[i]));
+		}
+		sb.append("],\"plan\":");
+		Long last = this._explainedAt.get(entry.sql);
+		if (last != null && entry.time - last < EXPLAIN_INTERVAL_MILLIS){
+			sb.append("null");
+		}else{
+			this._explainedAt.put(entry.sql, entry.time);
+			try{
+				// FORMAT JSON returns the plan as one JSON array
+				sb.append(explain(entry));
+				this._explained.incrementAndGet();
+			}catch (SQLException e){
+				sb.append("null,\"explainError\":");
+				Json.quote(sb, e.getMessage());
+			}
+		}
+		sb.append("}\n");
+
+		if (this._file.length() >= this._maxBytes) rotate();
+		try(OutputStream out = new FileOutputStream(this._file, true)){
+			out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		this._logged.incrementAndGet();
+	}
+
+	//runs the EXPLAIN on a pooled connection, never leaving anything behind
+	private String explain(Entry entry) throws SQLException {
+		String statement = entry.sql.trim();
+		String head = statement.toUpperCase();
+		boolean query = head.startsWith("SELECT") || head.startsWith("WITH") || head.startsWith("VALUES");
+		if (statement.startsWith("{")){
+			// EXPLAIN takes no JDBC escapes, so {call f(?)} is explained as SELECT * FROM f(?), without ANALYZE
+			// since the procedure may write
+			Matcher call = CALL_ESCAPE.matcher(statement);
+			if (!call.matches()) throw new SQLException("Cannot explain the JDBC escape " + statement);
+			statement = "SELECT * FROM " + call.group(1) + (call.group(2) == null ? "()" : call.group(2));
+		}
+		String sql = "EXPLAIN (" + (query ? "ANALYZE, BUFFERS, " : "") + "FORMAT JSON) " + statement;
+		PooledConnection conn = this._pool.borrow();
+		Connection physical = conn.getConnection();
+		try{
+			physical.setAutoCommit(false);
+			try(PreparedStatement stmt = physical.prepareStatement(sql)){
+				MechanicShop.bind(stmt, entry.params);
+				try(ResultSet rs = stmt.executeQuery()){
+					return rs.next() ? rs.getString(1) : "null";
+				}
+			}
+		}catch (SQLException e){
+			conn.markBrokenIf(e);
+			throw e;
+		}finally{
+			try{
+				physical.rollback();
+				physical.setAutoCommit(true);
+			}catch (SQLException e){
+				conn.markBroken();
+			}
+			this._pool.release(conn);
+		}
+	}
+
+	private void rotate(){
+		new File(this._file.getPath() + "." + this._maxFiles).delete();
+		for (int i = this._maxFiles - 1; i >= 1; --i){
+			File older = new File(this._file.getPath() + "." + i);
+			if (older.exists()) older.renameTo(new File(this._file.getPath() + "." + (i + 1)));
+		}
+		if (this._maxFiles > 0) this._file.renameTo(new File(this._file.getPath() + ".1"));
+		else this._file.delete();
+	}
+
+	/**
+	 * @return a one line summary of the logged, explained and dropped statements
+	 */
+	public String getStats(){
+		if (this._worker == null) return "slow query log: disabled";
+		return String.format("slow query log: threshold=%dms file=%s logged=%d explained=%d dropped=%d pending=%d",
+			TimeUnit.NANOSECONDS.toMillis(this._thresholdNanos), this._file, this._logged.get(),
+			this._explained.get(), this._dropped.get(), this._queue.size());
+	}
+
+	/**
+	 * Stops the background thread, waiting briefly for the running EXPLAIN.
+	 * Queued statements that were not written yet are discarded.
+	 */
+	public void close(){
+		if (this._worker == null) return;
+		this._closed = true;
+		this._worker.interrupt();
+		try{
+			this._worker.join(5000);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
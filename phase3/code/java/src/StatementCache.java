@@ -0,0 +1,138 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of PreparedStatements for one physical connection, keyed by the
+ * SQL template. Reusing the same PreparedStatement lets the PostgreSQL
+ * driver switch to a named server-side statement once it has been executed
+ * prepareThreshold times, so the server stops re-parsing and re-planning it.
+ *
+ * Statements handed out by the cache must not be closed by the caller.
+ *
+ */
+public class StatementCache{
+	private final Connection _connection;
+	private final int _capacity;
+	//hit/miss/eviction counters shared by every cache of the same pool
+	private final AtomicLong _hits;
+	private final AtomicLong _misses;
+	private final AtomicLong _evictions;
+	//access ordered so the eldest entry is the least recently used one
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	public StatementCache(Connection connection, int capacity, AtomicLong hits, AtomicLong misses, AtomicLong evictions){
+		this._connection = connection;
+		this._capacity = capacity;
+		this._hits = hits;
+		this._misses = misses;
+		this._evictions = evictions;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if (size() <= StatementCache.this._capacity) return false;
+				closeQuietly(eldest.getValue());
+				StatementCache.this._evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached PreparedStatement for the SQL template, preparing
+	 * it on a miss. A capacity of 0 disables caching, in which case the
+	 * caller owns the returned statement and must close it (see isCaching()).
+	 *
+	 * @param sql the SQL template with ? placeholders
+	 * @return a prepared statement for the template
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = cached(sql, false);
+		if (stmt != null) return stmt;
+		stmt = this._connection.prepareStatement(sql);
+		if (this._capacity > 0) this._statements.put(sql, stmt);
+		return stmt;
+	}
+
+	/**
+	 * Same as prepare() for a stored procedure call in JDBC escape syntax,
+	 * e.g. {call close_service_request(?, ?, ?, ?, ?)}.
+	 *
+	 * @param sql the call with ? placeholders
+	 * @return a callable statement for the call
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		PreparedStatement stmt = cached(sql, true);
+		if (stmt != null) return (CallableStatement) stmt;
+		CallableStatement call = this._connection.prepareCall(sql);
+		if (this._capacity > 0) this._statements.put(sql, call);
+		return call;
+	}
+
+	//the cached statement with cleared parameters, or null after counting a miss; a statement of the other
+	//kind cached under the same SQL is closed, since the caller replaces it
+	private PreparedStatement cached(String sql, boolean call) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()){
+			if ((stmt instanceof CallableStatement) == call){
+				this._hits.incrementAndGet();
+				stmt.clearParameters();
+				return stmt;
+			}
+			this._statements.remove(sql);
+			closeQuietly(stmt);
+		}
+		this._misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @return false when statements are not cached and must be closed after use
+	 */
+	public boolean isCaching(){
+		return this._capacity > 0;
+	}
+
+	public int size(){
+		return this._statements.size();
+	}
+
+	/**
+	 * Closes every cached statement.
+	 */
+	public void clear(){
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()){
+			closeQuietly(it.next());
+			it.remove();
+		}
+	}
+
+	private static void closeQuietly(PreparedStatement stmt){
+		try{
+			stmt.close();
+		}catch (SQLException e){
+			// ignored.
+		}
+	}
+}
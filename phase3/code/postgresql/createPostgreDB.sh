@@ -10,5 +10,12 @@ cp ../data/*.csv /tmp/$LOGNAME/test/data/.
 sleep 1
 
 psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/create.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/sequences.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/partition.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/close_request.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/bill_totals.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/service_counts.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/events.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/customer_search.sql
 psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/index.sql
 
@@ -0,0 +1,53 @@
+-----------------------------
+---CUSTOMER BILL TOTALS------
+-----------------------------
+-- Running SUM(bill) per customer, kept current by a trigger on Closed_Request
+-- so the total bill report is an indexed top-N read instead of a GROUP BY
+-- over the whole Closed_Request/Service_Request join.
+DROP TABLE IF EXISTS Customer_Bill_Totals CASCADE;
+
+CREATE TABLE Customer_Bill_Totals
+(
+	customer_id INTEGER NOT NULL,
+	total_bill BIGINT NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+
+-- backfill from the requests already closed
+INSERT INTO Customer_Bill_Totals (customer_id, total_bill)
+SELECT sr.customer_id, SUM(cr.bill)
+FROM Closed_Request cr, Service_Request sr
+WHERE cr.rid = sr.rid
+GROUP BY sr.customer_id;
+
+-- serves ORDER BY total_bill DESC, customer_id straight from the index
+CREATE INDEX customer_bill_totals_rank ON Customer_Bill_Totals (total_bill DESC, customer_id);
+
+CREATE OR REPLACE FUNCTION maintain_customer_bill_totals()
+ RETURNS "trigger" AS
+ $BODY$
+ DECLARE
+   cust INTEGER;
+ BEGIN
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+     SELECT customer_id INTO cust FROM Service_Request WHERE rid = OLD.rid;
+     UPDATE Customer_Bill_Totals SET total_bill = total_bill - OLD.bill WHERE customer_id = cust;
+     -- bills are positive, so a zero total means no closed requests are left
+     DELETE FROM Customer_Bill_Totals WHERE customer_id = cust AND total_bill = 0;
+   END IF;
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+     SELECT customer_id INTO cust FROM Service_Request WHERE rid = NEW.rid;
+     INSERT INTO Customer_Bill_Totals (customer_id, total_bill) VALUES (cust, NEW.bill)
+     ON CONFLICT (customer_id) DO UPDATE SET total_bill = Customer_Bill_Totals.total_bill + EXCLUDED.total_bill;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER CustomerBillTotalsTrigger
+ AFTER INSERT OR UPDATE OF rid, bill OR DELETE
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE maintain_customer_bill_totals();
@@ -0,0 +1,42 @@
+-----------------------------
+---CLOSE SERVICE REQUEST-----
+-----------------------------
+-- Validates and closes a service request in one call, so closing a ticket
+-- is a single round trip and a single transaction. The service request row
+-- is locked first, so two clerks closing the same request are serialized
+-- and the second one gets unique_violation instead of a second close.
+--
+--   no_data_found (P0002)            the service request or mechanic does not exist
+--   unique_violation (23505)         the service request is already closed
+--   invalid_parameter_value (22023)  the bill is not positive
+--
+-- A NULL wid is taken from closed_request_wid_seq (sql/sequences.sql).
+DROP FUNCTION IF EXISTS close_service_request(INTEGER, INTEGER, INTEGER, TEXT, INTEGER);
+
+CREATE OR REPLACE FUNCTION close_service_request(p_wid INTEGER, p_rid INTEGER, p_mid INTEGER, p_comment TEXT, p_bill INTEGER)
+ RETURNS TABLE(close_request_id INTEGER, service_request_id INTEGER, employee_id INTEGER, closing_date DATE, comments TEXT, bill INTEGER) AS
+ $BODY$
+ BEGIN
+   IF p_bill IS NULL OR p_bill <= 0 THEN
+     RAISE EXCEPTION 'Bill must be positive' USING ERRCODE = 'invalid_parameter_value';
+   END IF;
+   PERFORM 1 FROM Service_Request sr WHERE sr.rid = p_rid FOR UPDATE;
+   IF NOT FOUND THEN
+     RAISE EXCEPTION 'Service Request % does not exist', p_rid USING ERRCODE = 'no_data_found';
+   END IF;
+   PERFORM 1 FROM Mechanic m WHERE m.id = p_mid;
+   IF NOT FOUND THEN
+     RAISE EXCEPTION 'Mechanic % does not exist', p_mid USING ERRCODE = 'no_data_found';
+   END IF;
+   -- runs after the lock is granted, so it sees a close committed meanwhile
+   PERFORM 1 FROM Closed_Request cr WHERE cr.rid = p_rid;
+   IF FOUND THEN
+     RAISE EXCEPTION 'Service Request % is already closed', p_rid USING ERRCODE = 'unique_violation';
+   END IF;
+   RETURN QUERY
+   INSERT INTO Closed_Request AS cr (wid, rid, mid, date, comment, bill)
+   VALUES (COALESCE(p_wid, nextval('closed_request_wid_seq')::INTEGER), p_rid, p_mid, CURRENT_DATE, p_comment, p_bill)
+   RETURNING cr.wid, cr.rid, cr.mid, cr.date, cr.comment, cr.bill;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
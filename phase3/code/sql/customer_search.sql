@@ -0,0 +1,30 @@
+-----------------------------
+---CUSTOMER SEARCH-----------
+-----------------------------
+-- Backs CustomerSearch: case-insensitive substring, prefix and fuzzy search
+-- over first name, last name and phone. The three columns are folded into
+-- one lower case string ('john smith 4732595186', phone digits only) and
+-- indexed with pg_trgm, so LIKE '%smi%' and the <% word similarity operator
+-- are answered from a GIN index instead of a sequential scan. PostgreSQL
+-- maintains the index on every insert and update, so new customers are
+-- searchable as soon as they are committed.
+--
+-- pg_trgm ships with PostgreSQL; CREATE EXTENSION needs a superuser before
+-- PostgreSQL 13 and the database owner afterwards. Without this file
+-- CustomerSearch falls back to a last name scan.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- CHAR to TEXT drops the padding, so 'Smith' matches without trailing spaces
+CREATE OR REPLACE FUNCTION customer_search_text(p_fname TEXT, p_lname TEXT, p_phone TEXT)
+ RETURNS TEXT AS
+ $BODY$
+   SELECT lower(btrim(p_fname)) || ' ' || lower(btrim(p_lname)) || ' ' || regexp_replace(p_phone, '[^0-9]', '', 'g');
+ $BODY$
+ LANGUAGE sql IMMUTABLE;
+
+CREATE INDEX IF NOT EXISTS customer_search_trgm ON Customer USING GIN (customer_search_text(fname, lname, phone) gin_trgm_ops);
+
+-- terms under three characters have no trigram, they match a whole last name here
+CREATE INDEX IF NOT EXISTS customer_lname_lower ON Customer (lower(btrim(lname)));
+
+ANALYZE Customer;
@@ -0,0 +1,12 @@
+-- Removes the index pack created by index.sql.
+DROP INDEX IF EXISTS customer_lname;
+DROP INDEX IF EXISTS owns_customer_id;
+DROP INDEX IF EXISTS service_request_car_vin;
+DROP INDEX IF EXISTS service_request_low_mileage;
+DROP INDEX IF EXISTS service_request_customer_id;
+DROP INDEX IF EXISTS closed_request_rid;
+DROP INDEX IF EXISTS closed_request_small_bills;
+DROP INDEX IF EXISTS closed_request_small_bills_by_wid;
+DROP INDEX IF EXISTS car_before_1995;
+
+ANALYZE;
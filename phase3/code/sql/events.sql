@@ -0,0 +1,156 @@
+-----------------------------
+---SHOP EVENTS---------------
+-----------------------------
+-- A change feed of the shop for downstream consumers, so they need not poll
+-- Service_Request and Closed_Request. Four events are captured by triggers,
+-- whichever path wrote the row (the menu, the batch writer, the intake
+-- journal, COPY):
+--
+--   customer_added   Customer         key id
+--   car_added        Car              key vin
+--   request_opened   Service_Request  key rid
+--   request_closed   Closed_Request   key wid
+--
+-- The triggers only append to Shop_Event_Outbox, in the writer's
+-- transaction, and NOTIFY shop_events once per statement.
+-- relay_shop_events() moves outbox rows into Shop_Event, the feed, and
+-- numbers them there. It only moves rows of transactions older than every
+-- transaction still running. Positions are therefore handed out in an
+-- order that never changes afterwards: a reader that has seen position n
+-- will never find a new event below n. A long running transaction delays
+-- the feed, it never reorders it. Only one relay runs at a time, and any
+-- subscriber may call it.
+--
+-- Subscribers keep their position in Shop_Event_Offset (see
+-- EventSubscriber.java). prune_shop_events() deletes the events every
+-- subscriber has passed.
+--
+-- Setting shop.events to off in a session skips the capture, e.g.
+-- create_month_partition() when it moves rows between partitions.
+--
+-- Run after create.sql and partition.sql. Running it again keeps the
+-- events and the offsets.
+
+CREATE TABLE IF NOT EXISTS Shop_Event_Outbox
+(
+	outbox_id BIGSERIAL NOT NULL,
+	txid BIGINT NOT NULL DEFAULT txid_current(),
+	event_type TEXT NOT NULL,
+	entity_key TEXT NOT NULL,
+	payload JSONB NOT NULL,
+	created_at TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp(),
+	PRIMARY KEY (outbox_id)
+);
+
+CREATE TABLE IF NOT EXISTS Shop_Event
+(
+	position BIGINT NOT NULL,
+	event_type TEXT NOT NULL,
+	entity_key TEXT NOT NULL,
+	payload JSONB NOT NULL,
+	created_at TIMESTAMPTZ NOT NULL,
+	PRIMARY KEY (position)
+);
+
+CREATE TABLE IF NOT EXISTS Shop_Event_Offset
+(
+	consumer VARCHAR(64) NOT NULL,
+	position BIGINT NOT NULL,
+	updated_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+	PRIMARY KEY (consumer)
+);
+
+-- TG_ARGV[0] is the event type, TG_ARGV[1] the key column
+CREATE OR REPLACE FUNCTION capture_shop_event()
+ RETURNS "trigger" AS
+ $BODY$
+ DECLARE
+   v_row JSONB;
+ BEGIN
+   IF current_setting('shop.events', true) = 'off' THEN
+     RETURN NULL;
+   END IF;
+   v_row := to_jsonb(NEW);
+   INSERT INTO Shop_Event_Outbox (event_type, entity_key, payload) VALUES (TG_ARGV[0], btrim(v_row ->> TG_ARGV[1]), v_row);
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- delivered at commit, and only once per transaction however many rows were written
+CREATE OR REPLACE FUNCTION notify_shop_event()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   PERFORM pg_notify('shop_events', '');
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS ShopEventCustomer ON Customer;
+DROP TRIGGER IF EXISTS ShopEventCar ON Car;
+DROP TRIGGER IF EXISTS ShopEventServiceRequest ON Service_Request;
+DROP TRIGGER IF EXISTS ShopEventClosedRequest ON Closed_Request;
+DROP TRIGGER IF EXISTS ShopEventNotifyCustomer ON Customer;
+DROP TRIGGER IF EXISTS ShopEventNotifyCar ON Car;
+DROP TRIGGER IF EXISTS ShopEventNotifyServiceRequest ON Service_Request;
+DROP TRIGGER IF EXISTS ShopEventNotifyClosedRequest ON Closed_Request;
+
+CREATE TRIGGER ShopEventCustomer AFTER INSERT ON Customer FOR EACH ROW EXECUTE PROCEDURE capture_shop_event('customer_added', 'id');
+CREATE TRIGGER ShopEventCar AFTER INSERT ON Car FOR EACH ROW EXECUTE PROCEDURE capture_shop_event('car_added', 'vin');
+CREATE TRIGGER ShopEventServiceRequest AFTER INSERT ON Service_Request FOR EACH ROW EXECUTE PROCEDURE capture_shop_event('request_opened', 'rid');
+CREATE TRIGGER ShopEventClosedRequest AFTER INSERT ON Closed_Request FOR EACH ROW EXECUTE PROCEDURE capture_shop_event('request_closed', 'wid');
+
+CREATE TRIGGER ShopEventNotifyCustomer AFTER INSERT ON Customer FOR EACH STATEMENT EXECUTE PROCEDURE notify_shop_event();
+CREATE TRIGGER ShopEventNotifyCar AFTER INSERT ON Car FOR EACH STATEMENT EXECUTE PROCEDURE notify_shop_event();
+CREATE TRIGGER ShopEventNotifyServiceRequest AFTER INSERT ON Service_Request FOR EACH STATEMENT EXECUTE PROCEDURE notify_shop_event();
+CREATE TRIGGER ShopEventNotifyClosedRequest AFTER INSERT ON Closed_Request FOR EACH STATEMENT EXECUTE PROCEDURE notify_shop_event();
+
+-- Moves up to max_events settled outbox rows into Shop_Event, numbered after
+-- the last position in outbox order. Returns the number moved, 0 when
+-- another relay is running.
+CREATE OR REPLACE FUNCTION relay_shop_events(max_events INTEGER DEFAULT 10000)
+ RETURNS INTEGER AS
+ $BODY$
+ DECLARE
+   v_last BIGINT;
+   v_moved INTEGER;
+ BEGIN
+   IF NOT pg_try_advisory_xact_lock(hashtext('relay_shop_events')) THEN
+     RETURN 0;
+   END IF;
+   SELECT COALESCE(max(position), 0) INTO v_last FROM Shop_Event;
+   WITH moved AS (
+     DELETE FROM Shop_Event_Outbox
+     WHERE outbox_id IN (
+       SELECT outbox_id FROM Shop_Event_Outbox
+       WHERE txid < txid_snapshot_xmin(txid_current_snapshot())
+       ORDER BY outbox_id
+       LIMIT max_events)
+     RETURNING *)
+   INSERT INTO Shop_Event (position, event_type, entity_key, payload, created_at)
+   SELECT v_last + row_number() OVER (ORDER BY outbox_id), event_type, entity_key, payload, created_at
+   FROM moved;
+   GET DIAGNOSTICS v_moved = ROW_COUNT;
+   RETURN v_moved;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Deletes the events every registered subscriber has passed, except the
+-- last one, which the relay numbers from. Returns the number deleted.
+CREATE OR REPLACE FUNCTION prune_shop_events()
+ RETURNS INTEGER AS
+ $BODY$
+ DECLARE
+   v_deleted INTEGER;
+ BEGIN
+   DELETE FROM Shop_Event
+   WHERE position <= (SELECT min(position) FROM Shop_Event_Offset)
+     AND position < (SELECT max(position) FROM Shop_Event);
+   GET DIAGNOSTICS v_deleted = ROW_COUNT;
+   RETURN v_deleted;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
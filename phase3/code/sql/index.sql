@@ -1 +1,38 @@
-CREATE INDEX cid ON Customer (id);
+---------------------
+---INDEX PACK--------
+---------------------
+-- Targets the queries issued by MechanicShop/ShopService. The primary keys
+-- already index Customer(id), Mechanic(id), Car(vin), Owns(ownership_id),
+-- Service_Request(rid) and Closed_Request(wid), so none of those are repeated
+-- here. Run IndexBenchmark to compare EXPLAIN (ANALYZE, BUFFERS) timings with
+-- and without this pack (drop_index.sql removes it).
+DROP INDEX IF EXISTS cid; -- duplicated the Customer primary key
+
+-- InsertServiceRequest customer lookup: lname = ?
+CREATE INDEX IF NOT EXISTS customer_lname ON Customer (lname);
+
+-- InsertServiceRequest car lookup (customer_id = ?) and the more than 20 cars report (GROUP BY customer_id)
+CREATE INDEX IF NOT EXISTS owns_customer_id ON Owns (customer_id);
+
+-- most serviced cars report (GROUP BY car_vin) and joins from Car
+CREATE INDEX IF NOT EXISTS service_request_car_vin ON Service_Request (car_vin);
+
+-- cars before 1995 report: only requests with odometer < 50000 are joined
+CREATE INDEX IF NOT EXISTS service_request_low_mileage ON Service_Request (car_vin) WHERE odometer < 50000;
+
+-- joins from Customer to its requests
+CREATE INDEX IF NOT EXISTS service_request_customer_id ON Service_Request (customer_id);
+
+-- joins from Service_Request and the bill totals trigger lookups
+CREATE INDEX IF NOT EXISTS closed_request_rid ON Closed_Request (rid);
+
+-- bill < 100 report: covering partial index, the heap is not visited for other bills
+CREATE INDEX IF NOT EXISTS closed_request_small_bills ON Closed_Request (rid, bill) WHERE bill < 100;
+
+-- bill < 100 report pages: seeks past the last wid of the previous page
+CREATE INDEX IF NOT EXISTS closed_request_small_bills_by_wid ON Closed_Request (wid) WHERE bill < 100;
+
+-- cars before 1995 report: covering partial index over the old cars only
+CREATE INDEX IF NOT EXISTS car_before_1995 ON Car (vin, make, model, year) WHERE year < 1995;
+
+ANALYZE;
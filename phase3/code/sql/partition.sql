@@ -0,0 +1,296 @@
+-----------------------------
+---MONTHLY PARTITIONS--------
+-----------------------------
+-- Turns Service_Request and Closed_Request into tables partitioned by month
+-- on date (PostgreSQL 11 or later), so queries with a date range only read
+-- the months they cover and old months can be detached instead of deleted.
+--
+-- Each table has one partition per month, named e.g.
+-- service_request_2020_06, and a default partition that catches rows
+-- outside them. ensure_partitions() creates the coming months and moves
+-- anything that landed in a default partition into its month, and it is
+-- run by the Java client at startup, daily when serving HTTP and after an
+-- import. archive_partitions() detaches months older than a cutoff into
+-- the archive schema, where they stay queryable but out of every report.
+--
+-- A primary key on a partitioned table must contain the partition key, so
+-- the keys of the partitioned tables become (rid, date) and (wid, date),
+-- and Closed_Request.rid can no longer reference Service_Request. The two
+-- unpartitioned key tables Service_Request_Key and Closed_Request_Key, kept
+-- by triggers, still make rid and wid unique across all months and check
+-- that a closed request exists, with the same errors as before (23505 and
+-- 23503), whichever path wrote the row. Archived months keep their keys, so
+-- a rid or wid is never reused.
+--
+-- Migration: this script is run by createPostgreDB.sh right after
+-- sequences.sql. On an existing database, run it and then bill_totals.sql,
+-- service_counts.sql, events.sql and index.sql again. It moves the rows in one
+-- transaction and does nothing if the tables are already partitioned.
+
+CREATE SCHEMA IF NOT EXISTS archive;
+
+-- Creates the partition of one month, moving the rows of that month out of
+-- the default partition first. Removing them from the default and inserting
+-- them again fires the row triggers both ways, so the counts they keep stay
+-- right.
+CREATE OR REPLACE FUNCTION create_month_partition(p_table TEXT, p_month DATE)
+ RETURNS BOOLEAN AS
+ $BODY$
+ DECLARE
+   v_first DATE := date_trunc('month', p_month)::DATE;
+   v_next DATE := (date_trunc('month', p_month) + INTERVAL '1 month')::DATE;
+   v_part TEXT := lower(p_table) || '_' || to_char(p_month, 'YYYY_MM');
+   v_default TEXT := lower(p_table) || '_default';
+   v_misplaced BOOLEAN;
+ BEGIN
+   IF to_regclass(v_part) IS NOT NULL THEN
+     RETURN FALSE;
+   END IF;
+   EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE date >= %L AND date < %L)', v_default, v_first, v_next) INTO v_misplaced;
+   IF v_misplaced THEN
+     -- the rows are not new: keep them out of the key tables and the event feed of sql/events.sql
+     PERFORM set_config('shop.moving_rows', 'on', true);
+     PERFORM set_config('shop.events', 'off', true);
+     EXECUTE format('CREATE TEMP TABLE partition_moved (LIKE %I)', p_table);
+     EXECUTE format('WITH moved AS (DELETE FROM %I WHERE date >= %L AND date < %L RETURNING *) INSERT INTO partition_moved SELECT * FROM moved', v_default, v_first, v_next);
+   END IF;
+   EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)', v_part, p_table, v_first, v_next);
+   IF v_misplaced THEN
+     EXECUTE format('INSERT INTO %I SELECT * FROM partition_moved', p_table);
+     PERFORM set_config('shop.events', 'on', true);
+     PERFORM set_config('shop.moving_rows', 'off', true);
+     DROP TABLE partition_moved;
+   END IF;
+   RETURN TRUE;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Creates the partitions of this month and the next months_ahead months, and
+-- of every month found in a default partition. Returns the number created.
+CREATE OR REPLACE FUNCTION ensure_partitions(months_ahead INTEGER DEFAULT 3)
+ RETURNS INTEGER AS
+ $BODY$
+ DECLARE
+   v_table TEXT;
+   v_month DATE;
+   v_created INTEGER := 0;
+ BEGIN
+   FOREACH v_table IN ARRAY ARRAY['service_request', 'closed_request'] LOOP
+     FOR v_month IN
+       SELECT (date_trunc('month', CURRENT_DATE) + i * INTERVAL '1 month')::DATE FROM generate_series(0, months_ahead) i
+     LOOP
+       IF create_month_partition(v_table, v_month) THEN v_created := v_created + 1; END IF;
+     END LOOP;
+     FOR v_month IN EXECUTE format('SELECT DISTINCT date_trunc(''month'', date)::DATE FROM %I', v_table || '_default') LOOP
+       IF create_month_partition(v_table, v_month) THEN v_created := v_created + 1; END IF;
+     END LOOP;
+   END LOOP;
+   RETURN v_created;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Detaches the monthly partitions that end before the first day of the month
+-- keep_months months ago and moves them to the archive schema. The bill
+-- totals and service counts keep counting their rows. Returns the number
+-- archived.
+CREATE OR REPLACE FUNCTION archive_partitions(keep_months INTEGER)
+ RETURNS INTEGER AS
+ $BODY$
+ DECLARE
+   v_cutoff DATE := (date_trunc('month', CURRENT_DATE) - keep_months * INTERVAL '1 month')::DATE;
+   v_part RECORD;
+   v_archived INTEGER := 0;
+ BEGIN
+   IF keep_months IS NULL OR keep_months < 1 THEN
+     RAISE EXCEPTION 'At least the current month must be kept' USING ERRCODE = 'invalid_parameter_value';
+   END IF;
+   FOR v_part IN
+     SELECT parent.relname AS tbl, child.relname AS name
+     FROM pg_inherits i
+     JOIN pg_class parent ON parent.oid = i.inhparent
+     JOIN pg_class child ON child.oid = i.inhrelid
+     JOIN pg_namespace ns ON ns.oid = child.relnamespace
+     WHERE parent.relname IN ('service_request', 'closed_request') AND ns.nspname = current_schema()
+       AND child.relname ~ '_\d{4}_\d{2}$'
+       AND to_date(right(child.relname, 7), 'YYYY_MM') < v_cutoff
+   LOOP
+     EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', v_part.tbl, v_part.name);
+     EXECUTE format('ALTER TABLE %I SET SCHEMA archive', v_part.name);
+     v_archived := v_archived + 1;
+   END LOOP;
+   RETURN v_archived;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+DO
+$BODY$
+DECLARE
+  v_month DATE;
+BEGIN
+  IF (SELECT relkind FROM pg_class WHERE oid = to_regclass('service_request')) = 'p' THEN
+    RAISE NOTICE 'Service_Request is already partitioned';
+    RETURN;
+  END IF;
+
+  -- the sequences would be dropped with the tables that own them
+  ALTER SEQUENCE IF EXISTS service_request_rid_seq OWNED BY NONE;
+  ALTER SEQUENCE IF EXISTS closed_request_wid_seq OWNED BY NONE;
+
+  -- set aside with their indexes, which frees the index and constraint names
+  ALTER TABLE Closed_Request SET SCHEMA archive;
+  ALTER TABLE archive.Closed_Request RENAME TO closed_request_unpartitioned;
+  ALTER TABLE Service_Request SET SCHEMA archive;
+  ALTER TABLE archive.Service_Request RENAME TO service_request_unpartitioned;
+
+  CREATE TABLE Service_Request
+  (
+    rid INTEGER NOT NULL,
+    customer_id INTEGER NOT NULL,
+    car_vin VARCHAR(16) NOT NULL,
+    date DATE NOT NULL,
+    odometer _PINTEGER NOT NULL,
+    complain TEXT,
+    PRIMARY KEY (rid, date),
+    FOREIGN KEY (customer_id) REFERENCES Customer(id),
+    FOREIGN KEY (car_vin) REFERENCES Car(vin)
+  ) PARTITION BY RANGE (date);
+  CREATE TABLE service_request_default PARTITION OF Service_Request DEFAULT;
+
+  CREATE TABLE Closed_Request
+  (
+    wid INTEGER NOT NULL,
+    rid INTEGER NOT NULL,
+    mid INTEGER NOT NULL,
+    date DATE NOT NULL,
+    comment TEXT,
+    bill _PINTEGER NOT NULL,
+    PRIMARY KEY (wid, date),
+    FOREIGN KEY (mid) REFERENCES Mechanic(id)
+  ) PARTITION BY RANGE (date);
+  CREATE TABLE closed_request_default PARTITION OF Closed_Request DEFAULT;
+
+  -- the months of the existing rows, then the rows themselves
+  FOR v_month IN SELECT DISTINCT date_trunc('month', date)::DATE FROM archive.service_request_unpartitioned LOOP
+    PERFORM create_month_partition('service_request', v_month);
+  END LOOP;
+  FOR v_month IN SELECT DISTINCT date_trunc('month', date)::DATE FROM archive.closed_request_unpartitioned LOOP
+    PERFORM create_month_partition('closed_request', v_month);
+  END LOOP;
+  PERFORM ensure_partitions();
+  INSERT INTO Service_Request SELECT rid, customer_id, car_vin, date, odometer, complain FROM archive.service_request_unpartitioned;
+  INSERT INTO Closed_Request SELECT wid, rid, mid, date, comment, bill FROM archive.closed_request_unpartitioned;
+
+  IF to_regclass('service_request_rid_seq') IS NOT NULL THEN
+    ALTER SEQUENCE service_request_rid_seq OWNED BY Service_Request.rid;
+    ALTER TABLE Service_Request ALTER COLUMN rid SET DEFAULT nextval('service_request_rid_seq');
+  END IF;
+  IF to_regclass('closed_request_wid_seq') IS NOT NULL THEN
+    ALTER SEQUENCE closed_request_wid_seq OWNED BY Closed_Request.wid;
+    ALTER TABLE Closed_Request ALTER COLUMN wid SET DEFAULT nextval('closed_request_wid_seq');
+  END IF;
+
+  -- takes the triggers of bill_totals.sql and service_counts.sql along, they are created again by those scripts
+  DROP TABLE archive.closed_request_unpartitioned, archive.service_request_unpartitioned CASCADE;
+END;
+$BODY$;
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
+
+-- The keys of every request ever written, archived months included.
+CREATE OR REPLACE FUNCTION maintain_service_request_key()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF current_setting('shop.moving_rows', true) = 'on' THEN
+     RETURN NULL;
+   END IF;
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+     DELETE FROM Service_Request_Key WHERE rid = OLD.rid;
+   END IF;
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+     INSERT INTO Service_Request_Key (rid) VALUES (NEW.rid);
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION maintain_closed_request_key()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF current_setting('shop.moving_rows', true) = 'on' THEN
+     RETURN NULL;
+   END IF;
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+     DELETE FROM Closed_Request_Key WHERE wid = OLD.wid;
+   END IF;
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+     INSERT INTO Closed_Request_Key (wid, rid) VALUES (NEW.wid, NEW.rid);
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Runs after the whole TRUNCATE statement, so a table truncated together
+-- with this one is already empty. Truncating Service_Request alone while
+-- Closed_Request has rows fails on the foreign key, as it used to.
+CREATE OR REPLACE FUNCTION truncate_request_keys()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF NOT EXISTS (SELECT 1 FROM Closed_Request) THEN
+     TRUNCATE Closed_Request_Key;
+   END IF;
+   IF NOT EXISTS (SELECT 1 FROM Service_Request) THEN
+     DELETE FROM Service_Request_Key;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+DO
+$BODY$
+BEGIN
+  IF to_regclass('service_request_key') IS NOT NULL THEN
+    RETURN;
+  END IF;
+
+  CREATE TABLE Service_Request_Key
+  (
+    rid INTEGER NOT NULL,
+    PRIMARY KEY (rid)
+  );
+  CREATE TABLE Closed_Request_Key
+  (
+    wid INTEGER NOT NULL,
+    rid INTEGER NOT NULL,
+    PRIMARY KEY (wid),
+    FOREIGN KEY (rid) REFERENCES Service_Request_Key(rid)
+  );
+  CREATE INDEX closed_request_key_rid ON Closed_Request_Key (rid);
+
+  -- fails on a duplicate rid or wid, or a closed request without its request, already in the data
+  INSERT INTO Service_Request_Key (rid) SELECT rid FROM Service_Request;
+  INSERT INTO Closed_Request_Key (wid, rid) SELECT wid, rid FROM Closed_Request;
+
+  CREATE TRIGGER ServiceRequestKeyTrigger
+   AFTER INSERT OR UPDATE OF rid OR DELETE ON Service_Request
+   FOR EACH ROW EXECUTE PROCEDURE maintain_service_request_key();
+  CREATE TRIGGER ClosedRequestKeyTrigger
+   AFTER INSERT OR UPDATE OF wid, rid OR DELETE ON Closed_Request
+   FOR EACH ROW EXECUTE PROCEDURE maintain_closed_request_key();
+  CREATE TRIGGER ServiceRequestKeyTruncateTrigger
+   AFTER TRUNCATE ON Service_Request
+   FOR EACH STATEMENT EXECUTE PROCEDURE truncate_request_keys();
+  CREATE TRIGGER ClosedRequestKeyTruncateTrigger
+   AFTER TRUNCATE ON Closed_Request
+   FOR EACH STATEMENT EXECUTE PROCEDURE truncate_request_keys();
+END;
+$BODY$;
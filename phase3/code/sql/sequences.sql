@@ -0,0 +1,58 @@
+-----------------------------
+---KEY SEQUENCES-------------
+-----------------------------
+-- Server-side keys for the tables whose IDs used to be typed in by the
+-- operator. Every nextval reserves a block of 50 IDs [value, value + 49]
+-- that one client (IdAllocator) hands out without further round trips, so
+-- INCREMENT BY must match IdAllocator.BLOCK_SIZE. The column defaults draw
+-- a whole block per row and only use its first ID, so plain SQL inserts
+-- never collide with the blocks held by clients.
+DROP SEQUENCE IF EXISTS customer_id_seq CASCADE;
+DROP SEQUENCE IF EXISTS mechanic_id_seq CASCADE;
+DROP SEQUENCE IF EXISTS service_request_rid_seq CASCADE;
+DROP SEQUENCE IF EXISTS closed_request_wid_seq CASCADE;
+
+CREATE SEQUENCE customer_id_seq INCREMENT BY 50 MINVALUE 0 START WITH 0 OWNED BY Customer.id;
+CREATE SEQUENCE mechanic_id_seq INCREMENT BY 50 MINVALUE 0 START WITH 0 OWNED BY Mechanic.id;
+CREATE SEQUENCE service_request_rid_seq INCREMENT BY 50 MINVALUE 0 START WITH 0 OWNED BY Service_Request.rid;
+CREATE SEQUENCE closed_request_wid_seq INCREMENT BY 50 MINVALUE 0 START WITH 0 OWNED BY Closed_Request.wid;
+
+-- Moves a sequence past the largest key in its table, e.g. after a COPY
+-- with explicit keys. It never moves a sequence backwards, which would
+-- hand out the blocks clients are still using.
+CREATE OR REPLACE FUNCTION sync_id_sequence(seq regclass, tbl regclass, col name)
+ RETURNS bigint AS
+ $BODY$
+ DECLARE
+	next_free bigint;
+	max_id bigint;
+ BEGIN
+	EXECUTE format('SELECT CASE WHEN is_called THEN last_value + 50 ELSE last_value END FROM %s', seq) INTO next_free;
+	EXECUTE format('SELECT MAX(%I) FROM %s', col, tbl) INTO max_id;
+	IF max_id IS NOT NULL AND max_id + 1 > next_free THEN
+		next_free := max_id + 1;
+	END IF;
+	PERFORM setval(seq, next_free, false);
+	RETURN next_free;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION sync_id_sequences()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+	PERFORM sync_id_sequence('customer_id_seq', 'Customer', 'id');
+	PERFORM sync_id_sequence('mechanic_id_seq', 'Mechanic', 'id');
+	PERFORM sync_id_sequence('service_request_rid_seq', 'Service_Request', 'rid');
+	PERFORM sync_id_sequence('closed_request_wid_seq', 'Closed_Request', 'wid');
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+SELECT sync_id_sequences();
+
+ALTER TABLE Customer ALTER COLUMN id SET DEFAULT nextval('customer_id_seq');
+ALTER TABLE Mechanic ALTER COLUMN id SET DEFAULT nextval('mechanic_id_seq');
+ALTER TABLE Service_Request ALTER COLUMN rid SET DEFAULT nextval('service_request_rid_seq');
+ALTER TABLE Closed_Request ALTER COLUMN wid SET DEFAULT nextval('closed_request_wid_seq');
@@ -0,0 +1,48 @@
+-----------------------------
+---CAR SERVICE COUNTS--------
+-----------------------------
+-- COUNT(rid) per car, kept current by a trigger on Service_Request, so the
+-- most serviced cars report can be read a page at a time from an index in
+-- (number_of_requests DESC, car_vin) order instead of grouping and sorting
+-- the whole Service_Request table for every page.
+DROP TABLE IF EXISTS Car_Service_Counts CASCADE;
+
+CREATE TABLE Car_Service_Counts
+(
+	car_vin VARCHAR(16) NOT NULL,
+	number_of_requests BIGINT NOT NULL,
+	PRIMARY KEY (car_vin),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+
+-- backfill from the requests already opened
+INSERT INTO Car_Service_Counts (car_vin, number_of_requests)
+SELECT car_vin, COUNT(rid)
+FROM Service_Request
+GROUP BY car_vin;
+
+-- serves ORDER BY number_of_requests DESC, car_vin straight from the index
+CREATE INDEX car_service_counts_rank ON Car_Service_Counts (number_of_requests DESC, car_vin);
+
+CREATE OR REPLACE FUNCTION maintain_car_service_counts()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+     UPDATE Car_Service_Counts SET number_of_requests = number_of_requests - 1 WHERE car_vin = OLD.car_vin;
+     DELETE FROM Car_Service_Counts WHERE car_vin = OLD.car_vin AND number_of_requests = 0;
+   END IF;
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+     INSERT INTO Car_Service_Counts (car_vin, number_of_requests) VALUES (NEW.car_vin, 1)
+     ON CONFLICT (car_vin) DO UPDATE SET number_of_requests = Car_Service_Counts.number_of_requests + 1;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER CarServiceCountsTrigger
+ AFTER INSERT OR UPDATE OF car_vin OR DELETE
+ ON Service_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE maintain_car_service_counts();